@@ -0,0 +1,41 @@
+package benchmarks;
+
+import board.Bitboard;
+import board.Piece;
+import game.GameState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    private Bitboard board;
+
+    @Setup
+    public void setup() {
+        board = GameState.fromFEN(Positions.FENS[1]).getBoard();
+    }
+
+    /** Reads all 64 squares. */
+    @Benchmark
+    public int getPieceAt() {
+        int sum = 0;
+        for (int square = 0; square < 64; square++) {
+            sum += board.getPieceAt(square);
+        }
+        return sum;
+    }
+
+    /** Moves the white queen from f3 to f5 and back. */
+    @Benchmark
+    public long movePiece() {
+        board.movePiece(21, 37);
+        board.movePiece(37, 21);
+        return board.pieces[Piece.WHITE][Piece.QUEEN];
+    }
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import evaluation.Evaluation;
+import evaluation.PawnTable;
+import game.GameState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int position;
+
+    private GameState state;
+    private final PawnTable pawnTable = new PawnTable();
+
+    @Setup
+    public void setup() {
+        state = GameState.fromFEN(Positions.FENS[position]);
+    }
+
+    @Benchmark
+    public int evaluate() {
+        return Evaluation.evaluate(state);
+    }
+
+    /** Same position every call, so this measures the pawn-hash hit path. */
+    @Benchmark
+    public int evaluateWithPawnTable() {
+        return Evaluation.evaluate(state, pawnTable);
+    }
+}
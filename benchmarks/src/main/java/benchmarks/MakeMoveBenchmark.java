@@ -0,0 +1,41 @@
+package benchmarks;
+
+import game.GameState;
+import movegeneration.MoveGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Plays and takes back every legal move of each position; one op is one position's moves. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MakeMoveBenchmark {
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int position;
+
+    private GameState state;
+    private int[] moves;
+    private int count;
+
+    @Setup
+    public void setup() {
+        state = GameState.fromFEN(Positions.FENS[position]);
+        moves = new int[MoveGenerator.MAX_MOVES];
+        count = MoveGenerator.generateLegalMoves(state, moves);
+    }
+
+    @Benchmark
+    public long makeUnmake() {
+        long hashes = 0;
+        for (int i = 0; i < count; i++) {
+            state.makeMove(moves[i]);
+            hashes ^= state.getHash();
+            state.unmakeMove(moves[i]);
+        }
+        return hashes;
+    }
+}
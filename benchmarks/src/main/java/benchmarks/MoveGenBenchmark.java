@@ -0,0 +1,36 @@
+package benchmarks;
+
+import game.GameState;
+import movegeneration.MoveGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenBenchmark {
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int position;
+
+    private GameState state;
+    private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+
+    @Setup
+    public void setup() {
+        state = GameState.fromFEN(Positions.FENS[position]);
+    }
+
+    @Benchmark
+    public int generateLegalMoves() {
+        return MoveGenerator.generateLegalMoves(state, moves);
+    }
+
+    @Benchmark
+    public int generateCaptures() {
+        return MoveGenerator.generateCaptures(state, moves);
+    }
+}
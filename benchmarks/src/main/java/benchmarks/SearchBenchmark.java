@@ -0,0 +1,48 @@
+package benchmarks;
+
+import engine.Move;
+import engine.Search;
+import engine.TranspositionTable;
+import game.GameState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Fixed-depth search from cleared tables and history, so every op does the same work. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int position;
+
+    @Param({"5"})
+    public int depth;
+
+    private GameState state;
+    private TranspositionTable table;
+    private Search search;
+
+    @Setup
+    public void setup() {
+        state = GameState.fromFEN(Positions.FENS[position]);
+        table = new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB);
+        search = new Search(Integer.MAX_VALUE, table);
+        search.setReportProgress(false);
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        table.clear();
+        search.clearHistory();
+        search.getPawnTable().clear();
+    }
+
+    @Benchmark
+    public Move findBestMove() {
+        return search.findBestMove(state, depth);
+    }
+}
@@ -1,10 +1,18 @@
 package board;
 
+import java.util.Arrays;
+
+import static board.Piece.*;
+
 public class Bitboard {
-    public long wpawns, wknights, wbishops, wrooks, wqueens, wking;
-    public long bpawns, bknights, bbishops, brooks, bqueens, bking;
-    public long[] pieceBb;
-    public final char[] pieceChars = {'P', 'N', 'B', 'R', 'Q', 'K', 'p', 'n', 'b', 'r', 'q', 'k'};
+    // pieces[color][type], indexed with the constants in Piece.
+    public final long[][] pieces = new long[2][6];
+    // Occupancy per colour and the mailbox are kept in sync with the piece bitboards on every update.
+    public final long[] colors = new long[2];
+    private long occupied;
+    private final int[] mailbox = new int[64];
+
+    private static final String[] SYMBOLS = {"♙", "♘", "♗", "♖", "♕", "♔", "♟", "♞", "♝", "♜", "♛", "♚", "\u2003"};
 
     public Bitboard() {
         this(false);
@@ -12,138 +20,129 @@ public class Bitboard {
 
     public Bitboard(boolean isNew) {
         if (isNew) initialize();
-        else updatePieceBb();
+        else rebuild();
     }
 
     public Bitboard(Bitboard other) {
-        this.wpawns = other.wpawns;
-        this.wknights = other.wknights;
-        this.wbishops = other.wbishops;
-        this.wrooks = other.wrooks;
-        this.wqueens = other.wqueens;
-        this.wking = other.wking;
-
-        this.bpawns = other.bpawns;
-        this.bknights = other.bknights;
-        this.bbishops = other.bbishops;
-        this.brooks = other.brooks;
-        this.bqueens = other.bqueens;
-        this.bking = other.bking;
-        updatePieceBb();
+        for (int color = WHITE; color <= BLACK; color++) {
+            System.arraycopy(other.pieces[color], 0, this.pieces[color], 0, 6);
+        }
+        System.arraycopy(other.mailbox, 0, this.mailbox, 0, 64);
+        this.colors[WHITE] = other.colors[WHITE];
+        this.colors[BLACK] = other.colors[BLACK];
+        this.occupied = other.occupied;
     }
 
     public void initialize() {
-        wpawns = 0x000000000000FF00L;
-        wknights = 0x0000000000000042L;
-        wbishops = 0x0000000000000024L;
-        wrooks = 0x0000000000000081L;
-        wqueens = 0x0000000000000008L;
-        wking = 0x0000000000000010L;
-        bpawns = 0x00FF000000000000L;
-        bknights = 0x4200000000000000L;
-        bbishops = 0x2400000000000000L;
-        brooks = 0x8100000000000000L;
-        bqueens = 0x0800000000000000L;
-        bking = 0x1000000000000000L;
-
-        updatePieceBb();
+        pieces[WHITE][PAWN] = 0x000000000000FF00L;
+        pieces[WHITE][KNIGHT] = 0x0000000000000042L;
+        pieces[WHITE][BISHOP] = 0x0000000000000024L;
+        pieces[WHITE][ROOK] = 0x0000000000000081L;
+        pieces[WHITE][QUEEN] = 0x0000000000000008L;
+        pieces[WHITE][KING] = 0x0000000000000010L;
+        pieces[BLACK][PAWN] = 0x00FF000000000000L;
+        pieces[BLACK][KNIGHT] = 0x4200000000000000L;
+        pieces[BLACK][BISHOP] = 0x2400000000000000L;
+        pieces[BLACK][ROOK] = 0x8100000000000000L;
+        pieces[BLACK][QUEEN] = 0x0800000000000000L;
+        pieces[BLACK][KING] = 0x1000000000000000L;
+
+        rebuild();
     }
 
-    private void updatePieceBb() {
-        pieceBb = new long[]{
-                wpawns, wknights, wbishops, wrooks, wqueens, wking,
-                bpawns, bknights, bbishops, brooks, bqueens, bking
-        };
+    /** Recomputes the mailbox and occupancy masks from the piece bitboards. */
+    private void rebuild() {
+        Arrays.fill(mailbox, NONE);
+        for (int color = WHITE; color <= BLACK; color++) {
+            colors[color] = 0L;
+            for (int type = PAWN; type <= KING; type++) {
+                long bb = pieces[color][type];
+                colors[color] |= bb;
+                while (bb != 0) {
+                    mailbox[Long.numberOfTrailingZeros(bb)] = make(color, type);
+                    bb &= bb - 1;
+                }
+            }
+        }
+        occupied = colors[WHITE] | colors[BLACK];
     }
 
     public long getOccupied() {
-        return getWhitePieces() | getBlackPieces();
+        return occupied;
     }
 
     public long getEmpty() {
-        return ~getOccupied();
+        return ~occupied;
     }
 
     public long getWhitePieces() {
-        return wpawns | wknights | wbishops | wrooks | wqueens | wking;
+        return colors[WHITE];
     }
 
     public long getBlackPieces() {
-        return bpawns | bknights | bbishops | brooks | bqueens | bking;
+        return colors[BLACK];
+    }
+
+    public long getPieces(int color, int type) {
+        return pieces[color][type];
+    }
+
+    /** Both colours' pieces of one type. */
+    public long getPieces(int type) {
+        return pieces[WHITE][type] | pieces[BLACK][type];
     }
 
-    public void setBit(char piece, int index) {
+    /** True if {@code color} has anything besides king and pawns, the material zugzwang is rare with. */
+    public boolean hasNonPawnMaterial(int color) {
+        return (colors[color] & ~(pieces[color][PAWN] | pieces[color][KING])) != 0;
+    }
+
+    /** Places a piece on an empty square. */
+    public void addPiece(int piece, int index) {
         long bit = 1L << index;
-        switch (piece) {
-            case 'P' -> wpawns |= bit;
-            case 'N' -> wknights |= bit;
-            case 'B' -> wbishops |= bit;
-            case 'R' -> wrooks |= bit;
-            case 'Q' -> wqueens |= bit;
-            case 'K' -> wking |= bit;
-            case 'p' -> bpawns |= bit;
-            case 'n' -> bknights |= bit;
-            case 'b' -> bbishops |= bit;
-            case 'r' -> brooks |= bit;
-            case 'q' -> bqueens |= bit;
-            case 'k' -> bking |= bit;
-        }
-        updatePieceBb();
+        int color = color(piece);
+        pieces[color][type(piece)] |= bit;
+        colors[color] |= bit;
+        occupied |= bit;
+        mailbox[index] = piece;
     }
 
-    public void clearSquare(int index) {
+    /** Removes whatever stands on the square and returns it, or {@link Piece#NONE}. */
+    public int removePiece(int index) {
+        int piece = mailbox[index];
+        if (piece == NONE) return NONE;
         long mask = ~(1L << index);
-        wpawns &= mask;
-        wknights &= mask;
-        wbishops &= mask;
-        wrooks &= mask;
-        wqueens &= mask;
-        wking &= mask;
-        bpawns &= mask;
-        bknights &= mask;
-        bbishops &= mask;
-        brooks &= mask;
-        bqueens &= mask;
-        bking &= mask;
-        updatePieceBb();
-    }
-
-    public void movePiece(int from, int to, char piece) {
-        if (piece == ' ') return;
-        clearSquare(from);
-        clearSquare(to);
-        setBit(piece, to);
-    }
-
-    public char getPieceAt(int index) {
-        long bit = 1L << index;
-        for (int i = 0; i < 12; i++) {
-            if ((pieceBb[i] & bit) != 0) {
-                return pieceChars[i];
-            }
-        }
-        return ' ';
+        int color = color(piece);
+        pieces[color][type(piece)] &= mask;
+        colors[color] &= mask;
+        occupied &= mask;
+        mailbox[index] = NONE;
+        return piece;
+    }
+
+    /** Moves the piece on {@code from} to {@code to}, removing anything captured there. */
+    public void movePiece(int from, int to) {
+        int piece = mailbox[from];
+        if (piece == NONE) return;
+        removePiece(to);
+        long fromTo = (1L << from) | (1L << to);
+        int color = color(piece);
+        pieces[color][type(piece)] ^= fromTo;
+        colors[color] ^= fromTo;
+        occupied ^= fromTo;
+        mailbox[from] = NONE;
+        mailbox[to] = piece;
+    }
+
+    public int getPieceAt(int index) {
+        return mailbox[index];
     }
 
     public void printBoard() {
         for (int rank = 7; rank >= 0; rank--) {
             System.out.print(rank + 1 + " ");
             for (int file = 0; file < 8; file++) {
-                int square = 8 * rank + file;
-                String piece = "\u2003";
-                if ((wpawns & (1L << square)) != 0) piece = "♙";
-                else if ((wbishops & (1L << square)) != 0) piece = "♗";
-                else if ((wknights & (1L << square)) != 0) piece = "♘";
-                else if ((wrooks & (1L << square)) != 0) piece = "♖";
-                else if ((wqueens & (1L << square)) != 0) piece = "♕";
-                else if ((wking & (1L << square)) != 0) piece = "♔";
-                else if ((bpawns & (1L << square)) != 0) piece = "♟";
-                else if ((bbishops & (1L << square)) != 0) piece = "♝";
-                else if ((bknights & (1L << square)) != 0) piece = "♞";
-                else if ((brooks & (1L << square)) != 0) piece = "♜";
-                else if ((bqueens & (1L << square)) != 0) piece = "♛";
-                else if ((bking & (1L << square)) != 0) piece = "♚";
-                System.out.print(piece + " ");
+                System.out.print(SYMBOLS[mailbox[8 * rank + file]] + " ");
             }
             System.out.println();
         }
@@ -0,0 +1,52 @@
+package board;
+
+/**
+ * Integer piece codes. A piece is {@code color * 6 + type}, so the twelve pieces are
+ * 0..11 in the order P N B R Q K p n b r q k, and {@link #NONE} marks an empty square.
+ */
+public final class Piece {
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+
+    public static final int WHITE_PAWN = 0;
+    public static final int WHITE_ROOK = 3;
+    public static final int WHITE_KING = 5;
+    public static final int BLACK_PAWN = 6;
+    public static final int BLACK_ROOK = 9;
+    public static final int BLACK_KING = 11;
+    public static final int NONE = 12;
+
+    private static final String CHARS = "PNBRQKpnbrqk ";
+
+    private Piece() {
+    }
+
+    public static int make(int color, int type) {
+        return color * 6 + type;
+    }
+
+    public static int color(int piece) {
+        return piece < 6 ? WHITE : BLACK;
+    }
+
+    public static int type(int piece) {
+        return piece < 6 ? piece : piece - 6;
+    }
+
+    public static char toChar(int piece) {
+        return CHARS.charAt(piece);
+    }
+
+    /** Returns the code for a FEN letter, or {@link #NONE} if it is not a piece letter. */
+    public static int fromChar(char c) {
+        int index = CHARS.indexOf(c);
+        return index < 0 ? NONE : index;
+    }
+}
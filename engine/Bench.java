@@ -0,0 +1,104 @@
+package engine;
+
+import game.GameState;
+
+/**
+ * Fixed-depth search over a built-in set of positions. The total node count is a signature
+ * of the search: it only changes when the search itself changes, so it tells functional
+ * changes apart from pure speedups, which show up in nodes per second instead. Every
+ * position starts from an empty transposition table and move history, with no time limit,
+ * which keeps the count independent of the Hash setting and of machine speed.
+ *
+ * <p>With more than one thread the count is no longer reproducible, but the total time
+ * against the single-threaded run gives the Lazy SMP time-to-depth speedup.
+ */
+public final class Bench {
+    public static final int DEFAULT_DEPTH = 4;
+
+    private static final String[] POSITIONS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 10",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 11",
+            "4rrk1/pp1n3p/3q2pQ/2p1pb2/2PP4/2P3N1/P2B2PP/4RRK1 b - - 7 19",
+            "rq3rk1/ppp2ppp/1bnpb3/3N2B1/3NP3/7P/PPPQ1PP1/2KR3R w - - 7 14",
+            "r1bq1r1k/1pp1n1pp/1p1p4/4p2Q/4Pp2/1BNP4/PPP2PPP/3R1RK1 w - - 2 14",
+            "r3r1k1/2p2ppp/p1p1bn2/8/1q2P3/2NPQN2/PPP3PP/R4RK1 b - - 2 15",
+            "r1bbk1nr/pp3p1p/2n5/1N4p1/2Np1B2/8/PPP2PPP/2KR1B1R w kq - 0 13",
+            "r1bq1rk1/ppp1nppp/4n3/3p3Q/3P4/1BP1B3/PP1N2PP/R4RK1 w - - 1 16",
+            "4r1k1/r1q2ppp/ppp2n2/4P3/5Rb1/1N1BQ3/PPP3PP/R5K1 w - - 1 17",
+            "2rqkb1r/ppp2p2/2npb1p1/1N1Nn2p/2P1PP2/8/PP2B1PP/R1BQK2R b KQ - 0 11",
+            "r1bq1r1k/b1p1npp1/p2p3p/1p6/3PP3/1B2NN2/PP3PPP/R2Q1RK1 w - - 1 16",
+            "3r1rk1/p5pp/bpp1pp2/8/q1PP1P2/b3P3/P2NQRPP/1R2B1K1 b - - 6 22",
+            "r1q2rk1/2p1bppp/2Pp4/p6b/Q1PNp3/4B3/PP1R1PPP/2K4R w - - 2 18",
+            "4k2r/1pb2ppp/1p2p3/1R1p4/3P4/2r1PN2/P4PPP/1R4K1 b - - 3 22",
+            "3q2k1/pb3p1p/4pbp1/2r5/PpN2N2/1P2P2P/5PP1/Q2R2K1 b - - 4 26",
+            "6k1/6p1/6Pp/ppp5/3pn2P/1P3K2/1PP2P2/8 b - - 0 1",
+            "8/8/1p2k1p1/3p3p/1p1P1P1P/1P2PK2/8/8 w - - 3 54",
+            "7r/2p3k1/1p1p1qp1/1P1Bp3/p1P2r1P/P7/4R3/Q4RK1 w - - 0 36",
+            "r1bq1rk1/pp2b1pp/n1pp1n2/3P1p2/2P1p3/2N1P2N/PP2BPPP/R1BQ1RK1 b - - 2 10",
+            "3r3k/2r4p/1p1b3q/p4P2/P2Pp3/1B2P3/3BQ1RP/6K1 w - - 3 87",
+            "2r4r/1p4k1/1Pnp4/3Qb1pq/8/4BpPp/5P2/2RR1BK1 w - - 0 42",
+            "4q1bk/6b1/7p/p1p4p/PNPpP2P/KN4P1/3Q4/4R3 b - - 0 37",
+            "2q3r1/1r2pk2/pp3pp1/2pP3p/P1Pb1BbP/1P4Q1/R3NPP1/4R1K1 w - - 2 34",
+            "1r2r2k/1b4q1/pp5p/2pPp1p1/P3Pn2/1P1B1Q1P/2R3P1/4BR1K b - - 1 37",
+            "r3kbbr/pp1n1p1P/3ppnp1/q5N1/1P1pP3/P1N1B3/2P1QP2/R3KB1R b KQkq b3 0 17",
+            "8/6pk/2b1Rp2/3r4/1R1B2PP/P5K1/8/2r5 b - - 16 42",
+            "1r4k1/4ppb1/2n1b1qp/pB4p1/1n1BP1P1/7P/2PNQPK1/3RN3 w - - 8 29",
+            "8/p2B4/PkP5/4p1pK/4Pb1p/5P2/8/8 w - - 29 68",
+            "3r4/ppq1ppkp/4bnp1/2pN4/2P1P3/1P4P1/PQ3PBP/R4K2 b - - 2 20",
+            "5rr1/4n2k/4q2P/P1P2n2/3B1p2/4pP2/2N1P3/1RR1K2Q w - - 1 49",
+            "1r5k/2pq2p1/3p3p/p1pP4/4QP2/PP1R3P/6PK/8 w - - 1 51",
+            "q5k1/5ppp/1r3bn1/1B6/P1N2P2/BQ2P1P1/5K1P/8 b - - 2 34",
+            "r1b2k1r/5n2/p4q2/1ppn1Pp1/3pp1p1/NP2P3/P1PPBK2/1RQN2R1 w - - 0 22",
+            "r1bqk2r/pppp1ppp/5n2/4b3/4P3/P1N5/1PP2PPP/R1BQKB1R w KQkq - 0 5",
+            "r1bqr1k1/pp1p1ppp/2p5/8/3N1Q2/P2BB3/1PP2PPP/R3K2R b KQ - 0 12",
+            "8/8/8/8/5kp1/P7/8/1K1N4 w - - 0 1",
+            "8/8/8/5N2/8/p7/8/2NK3k w - - 0 1",
+            "8/3k4/8/8/8/4B3/4KB2/2B5 w - - 0 1",
+            "8/8/1P6/5pr1/8/4R3/7k/2K5 w - - 0 1",
+            "8/2p4P/8/kr6/6R1/8/8/1K6 w - - 0 1",
+            "8/8/3P3k/8/1p6/8/1P6/1K3n2 b - - 0 1"
+    };
+
+    private Bench() {
+    }
+
+    public static long run(int depth) {
+        return run(depth, 1);
+    }
+
+    /** Searches every position to {@code depth}, prints the totals and returns the node count. */
+    public static long run(int depth, int threads) {
+        TranspositionTable table = new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB);
+        SmpSearch search = new SmpSearch(threads, Integer.MAX_VALUE, table);
+        search.setReportProgress(false);
+        long nodes = 0;
+        long failHighs = 0;
+        long firstMoveFailHighs = 0;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < POSITIONS.length; i++) {
+            System.out.println("Position: " + (i + 1) + "/" + POSITIONS.length + " (" + POSITIONS[i] + ")");
+            table.clear();
+            search.clearHistory();
+            search.clearStop();
+            search.findBestMove(GameState.fromFEN(POSITIONS[i]), depth);
+            nodes += search.getNodeCount();
+            failHighs += search.getFailHighs();
+            firstMoveFailHighs += search.getFirstMoveFailHighs();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        search.shutdown();
+
+        System.out.println();
+        System.out.println("===========================");
+        System.out.println("Threads         : " + search.getThreads());
+        System.out.println("Total time (ms) : " + elapsed);
+        System.out.println("Nodes searched  : " + nodes);
+        System.out.println("Nodes/second    : " + nodes * 1000 / elapsed);
+        long firstMoveRate = firstMoveFailHighs * 1000 / Math.max(1, failHighs);
+        System.out.println("First-move cuts : " + firstMoveRate / 10 + "." + firstMoveRate % 10 + "%");
+        int pawnHits = search.getPawnHitRate();
+        System.out.println("Pawn hash hits  : " + pawnHits / 10 + "." + pawnHits % 10 + "%");
+        return nodes;
+    }
+}
@@ -0,0 +1,145 @@
+package engine;
+
+import board.Bitboard;
+import board.Piece;
+
+import java.util.Arrays;
+
+/**
+ * Quiet-move ordering statistics of one search thread. Each {@link Search} owns one, so
+ * Lazy SMP threads never share or contend on it. It holds:
+ * <ul>
+ * <li>two killer moves per ply;
+ * <li>a butterfly history of scores per side and from-to pair;
+ * <li>a counter move per previous move (the opponent's piece and destination);
+ * <li>1-ply and 2-ply continuation histories, scoring a move (piece, destination) by the
+ * move played one and two plies earlier.
+ * </ul>
+ * History updates use gravity: a bonus shrinks as the entry approaches {@link #MAX}, so
+ * scores stay bounded and recent results outweigh old ones without any explicit clamp.
+ * That bound also lets the larger tables be {@code short[]}: the two continuation tables
+ * are 1.2 MB each instead of 2.4 MB, which keeps more of them in cache.
+ */
+final class History {
+    static final int MAX = 16384;
+
+    // (piece, to-square) pairs: the key of a continuation entry and of a counter move.
+    private static final int PIECE_SQUARES = 12 * 64;
+
+    private final int[][] killers = new int[Search.MAX_PLY][2];
+    private final int[] butterfly = new int[2 * 64 * 64];
+    private final short[] counterMoves = new short[PIECE_SQUARES];
+    private final short[] continuation1 = new short[PIECE_SQUARES * PIECE_SQUARES];
+    private final short[] continuation2 = new short[PIECE_SQUARES * PIECE_SQUARES];
+
+    // Piece and destination of the move played at each ply of the current line.
+    private final int[] playedPiece = new int[Search.MAX_PLY];
+    private final int[] playedTo = new int[Search.MAX_PLY];
+
+    /** Records the move about to be played at {@code ply}, for the counter move and continuations below it. */
+    void push(int ply, int piece, int to) {
+        playedPiece[ply] = piece;
+        playedTo[ply] = to;
+    }
+
+    int killer1(int ply) {
+        return killers[ply][0];
+    }
+
+    int killer2(int ply) {
+        return killers[ply][1];
+    }
+
+    /** The quiet move that last refuted the opponent's previous move, or {@link Move#NO_MOVE}. */
+    int counterMove(int ply) {
+        int previous = context(ply, 1);
+        return previous < 0 ? Move.NO_MOVE : counterMoves[previous] & 0xFFFF;
+    }
+
+    /** Ordering score of a quiet move by {@code piece} at {@code ply}, in [-3 * MAX, 3 * MAX]. */
+    int score(int color, int piece, int move, int ply) {
+        int key = piece * 64 + Move.to(move);
+        int score = butterfly[index(color, move)];
+        int previous = context(ply, 1);
+        if (previous >= 0) score += continuation1[previous * PIECE_SQUARES + key];
+        int earlier = context(ply, 2);
+        if (earlier >= 0) score += continuation2[earlier * PIECE_SQUARES + key];
+        return score;
+    }
+
+    /**
+     * Called when quiet move {@code best} fails high: it becomes the first killer of the ply and
+     * the counter to the previous move, and gets a bonus in every table. Every quiet tried
+     * before it gets the same amount as a malus.
+     */
+    void update(Bitboard board, int color, int ply, int best, int[] quiets, int quietCount, int depth) {
+        if (killers[ply][0] != best) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = best;
+        }
+        int previous = context(ply, 1);
+        if (previous >= 0) counterMoves[previous] = (short) best;
+
+        int earlier = context(ply, 2);
+        int bonus = Math.min(32 * depth * depth, MAX / 8);
+        reward(board, color, best, previous, earlier, bonus);
+        for (int i = 0; i < quietCount; i++) {
+            if (quiets[i] != best) reward(board, color, quiets[i], previous, earlier, -bonus);
+        }
+    }
+
+    private void reward(Bitboard board, int color, int move, int previous, int earlier, int bonus) {
+        butterfly[index(color, move)] = gravity(butterfly[index(color, move)], bonus);
+        int key = board.getPieceAt(Move.from(move)) * 64 + Move.to(move);
+        if (previous >= 0) {
+            int i = previous * PIECE_SQUARES + key;
+            continuation1[i] = (short) gravity(continuation1[i], bonus);
+        }
+        if (earlier >= 0) {
+            int i = earlier * PIECE_SQUARES + key;
+            continuation2[i] = (short) gravity(continuation2[i], bonus);
+        }
+    }
+
+    /** Between iterations: fades the history a little so the next depth's cutoffs dominate. */
+    void newIteration() {
+        for (int i = 0; i < butterfly.length; i++) butterfly[i] -= butterfly[i] >> 3;
+    }
+
+    /**
+     * Between moves of a game: halves the histories and drops killers, whose plies no longer
+     * line up. Counter moves are keyed by position features, so they stay.
+     */
+    void newSearch() {
+        for (int i = 0; i < butterfly.length; i++) butterfly[i] >>= 1;
+        for (int i = 0; i < continuation1.length; i++) {
+            continuation1[i] >>= 1;
+            continuation2[i] >>= 1;
+        }
+        for (int[] slots : killers) Arrays.fill(slots, Move.NO_MOVE);
+    }
+
+    void clear() {
+        Arrays.fill(butterfly, 0);
+        Arrays.fill(counterMoves, (short) 0);
+        Arrays.fill(continuation1, (short) 0);
+        Arrays.fill(continuation2, (short) 0);
+        for (int[] slots : killers) Arrays.fill(slots, Move.NO_MOVE);
+    }
+
+    private static int gravity(int entry, int bonus) {
+        return entry + bonus - entry * Math.abs(bonus) / MAX;
+    }
+
+    /** (piece, to) key of the move played {@code back} plies before {@code ply}, or -1 if there is none. */
+    private int context(int ply, int back) {
+        if (ply < back) return -1;
+        int piece = playedPiece[ply - back];
+        return piece == Piece.NONE ? -1 : piece * 64 + playedTo[ply - back];
+    }
+
+    // Colour and the low 12 bits of the packed move, which are its from and to squares.
+    private static int index(int color, int move) {
+        return color << 12 | (move & 0xFFF);
+    }
+}
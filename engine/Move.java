@@ -3,6 +3,19 @@ package engine;
 import java.util.Objects;
 
 public class Move {
+    /*
+     * Packed moves, used everywhere below the UCI boundary:
+     * from (6 bits) | to (6) | flag (2) | promotion piece (2: knight, bishop, rook, queen).
+     * They fit in 16 bits, so the transposition table stores them directly.
+     */
+    public static final int NO_MOVE = 0;
+    public static final int NORMAL = 0;
+    public static final int EN_PASSANT = 1;
+    public static final int CASTLING = 2;
+    public static final int PROMOTION = 3;
+
+    private static final char[] PROMOTION_PIECES = {'n', 'b', 'r', 'q'};
+
     private final int fromSquare, toSquare;
     private final MoveType type;
     private final char promotion;
@@ -52,6 +65,70 @@ public class Move {
         return promotion;
     }
 
+    public int encode() {
+        return switch (type) {
+            case EN_PASSANT -> pack(fromSquare, toSquare, EN_PASSANT);
+            case CASTLING -> pack(fromSquare, toSquare, CASTLING);
+            case PROMOTION_KNIGHT -> packPromotion(fromSquare, toSquare, 0);
+            case PROMOTION_BISHOP -> packPromotion(fromSquare, toSquare, 1);
+            case PROMOTION_ROOK -> packPromotion(fromSquare, toSquare, 2);
+            case PROMOTION_QUEEN -> packPromotion(fromSquare, toSquare, 3);
+            default -> pack(fromSquare, toSquare, NORMAL);
+        };
+    }
+
+    public static Move decode(int move) {
+        if (move == NO_MOVE) return null;
+        return switch (flag(move)) {
+            case EN_PASSANT -> new Move(from(move), to(move), MoveType.EN_PASSANT);
+            case CASTLING -> new Move(from(move), to(move), MoveType.CASTLING);
+            case PROMOTION -> new Move(from(move), to(move), promotionPiece(move));
+            default -> new Move(from(move), to(move));
+        };
+    }
+
+    public static int pack(int from, int to, int flag) {
+        return from | (to << 6) | (flag << 12);
+    }
+
+    public static int packPromotion(int from, int to, int promotion) {
+        return from | (to << 6) | (PROMOTION << 12) | (promotion << 14);
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    public static int flag(int move) {
+        return (move >>> 12) & 3;
+    }
+
+    public static boolean isPromotion(int move) {
+        return flag(move) == PROMOTION;
+    }
+
+    /** Lowercase promotion piece letter, only meaningful when {@link #isPromotion(int)}. */
+    public static char promotionPiece(int move) {
+        return PROMOTION_PIECES[(move >>> 14) & 3];
+    }
+
+    /** Promotion piece type as a {@code board.Piece} type (knight through queen). */
+    public static int promotionType(int move) {
+        return ((move >>> 14) & 3) + 1;
+    }
+
+    public static String toUCI(int move) {
+        String uci = squareToAlgebraic(from(move)) + squareToAlgebraic(to(move));
+        if (isPromotion(move)) {
+            uci += promotionPiece(move);
+        }
+        return uci;
+    }
+
     public static String squareToAlgebraic(int sq) {
         if (sq < 0 || sq > 63) {
             return "-";
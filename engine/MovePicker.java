@@ -0,0 +1,218 @@
+package engine;
+
+import board.Bitboard;
+import board.Piece;
+import evaluation.Evaluation;
+import game.GameState;
+import movegeneration.MoveGenerator;
+import movegeneration.StaticExchange;
+
+/**
+ * Hands out the moves of one node best-first, in stages, generating each group only when
+ * the stage is reached: the hash move (checked for legality, nothing generated), winning
+ * captures by MVV-LVA, killers, the counter move, quiet moves by history, and finally the
+ * captures that lose material by static exchange evaluation.
+ * A beta cutoff on an early move therefore skips generating and scoring the rest.
+ * <p>
+ * One picker per ply is preallocated by {@link Search}, so picking never allocates.
+ */
+final class MovePicker {
+    private static final int HASH = 0;
+    private static final int GENERATE_CAPTURES = 1;
+    private static final int GOOD_CAPTURES = 2;
+    private static final int KILLER_1 = 3;
+    private static final int KILLER_2 = 4;
+    private static final int COUNTER_MOVE = 5;
+    private static final int GENERATE_QUIETS = 6;
+    private static final int QUIETS = 7;
+    private static final int BAD_CAPTURES = 8;
+    private static final int DONE = 9;
+
+    private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+    private final int[] scores = new int[MoveGenerator.MAX_MOVES];
+    private final int[] badCaptures = new int[MoveGenerator.MAX_MOVES];
+    private final History history;
+    private final StaticExchange exchange;
+
+    private GameState state;
+    private int stage;
+    private boolean quiescence;
+    private int ttMove;
+    private int killer1;
+    private int killer2;
+    private int counterMove;
+    private int ply;
+    private int index;
+    private int count;
+    private int badCount;
+
+    MovePicker(History history, StaticExchange exchange) {
+        this.history = history;
+        this.exchange = exchange;
+    }
+
+    /** Starts a main-search node at {@code ply}, taking killers and the counter move from the history. */
+    void init(GameState state, int ttMove, int ply) {
+        this.state = state;
+        this.quiescence = false;
+        this.ttMove = ttMove;
+        this.ply = ply;
+        // Stale or unusable here; each is checked before it is returned.
+        this.killer1 = history.killer1(ply);
+        this.killer2 = history.killer2(ply);
+        this.counterMove = history.counterMove(ply);
+        this.stage = HASH;
+        this.badCount = 0;
+    }
+
+    /**
+     * Starts a quiescence node: winning captures and queen promotions only, the hash move
+     * included if it is one. Losing captures are pruned, since the stand-pat score already
+     * bounds what the side to move can get.
+     */
+    void initQuiescence(GameState state, int ttMove) {
+        this.state = state;
+        this.quiescence = true;
+        this.ttMove = isNoisy(state.board, ttMove) ? ttMove : Move.NO_MOVE;
+        this.stage = HASH;
+        this.badCount = 0;
+    }
+
+    /** The next move to search, or {@link Move#NO_MOVE} when the node is exhausted. */
+    int next() {
+        while (true) {
+            switch (stage) {
+                case HASH -> {
+                    stage = GENERATE_CAPTURES;
+                    if (ttMove != Move.NO_MOVE && MoveGenerator.isLegal(state, ttMove)) return ttMove;
+                    ttMove = Move.NO_MOVE;
+                }
+                case GENERATE_CAPTURES -> {
+                    count = MoveGenerator.generateCaptures(state, moves);
+                    scoreCaptures();
+                    index = 0;
+                    stage = GOOD_CAPTURES;
+                }
+                case GOOD_CAPTURES -> {
+                    while (index < count) {
+                        int move = pickBest();
+                        if (move == ttMove) continue;
+                        if (isLosing(move)) {
+                            badCaptures[badCount++] = move;
+                            continue;
+                        }
+                        return move;
+                    }
+                    stage = quiescence ? DONE : KILLER_1;
+                    index = 0;
+                }
+                case KILLER_1 -> {
+                    stage = KILLER_2;
+                    if (isUsableKiller(killer1)) return killer1;
+                }
+                case KILLER_2 -> {
+                    stage = COUNTER_MOVE;
+                    if (killer2 != killer1 && isUsableKiller(killer2)) return killer2;
+                }
+                case COUNTER_MOVE -> {
+                    stage = GENERATE_QUIETS;
+                    if (counterMove != killer1 && counterMove != killer2 && isUsableKiller(counterMove)) {
+                        return counterMove;
+                    }
+                }
+                case GENERATE_QUIETS -> {
+                    count = MoveGenerator.generateQuiets(state, moves);
+                    scoreQuiets();
+                    index = 0;
+                    stage = QUIETS;
+                }
+                case QUIETS -> {
+                    while (index < count) {
+                        int move = pickBest();
+                        if (move != ttMove && move != killer1 && move != killer2 && move != counterMove) return move;
+                    }
+                    index = 0;
+                    stage = BAD_CAPTURES;
+                }
+                case BAD_CAPTURES -> {
+                    // Already in generation order, and rarely reached: a cutoff has usually happened.
+                    if (index < badCount) return badCaptures[index++];
+                    stage = DONE;
+                }
+                default -> {
+                    return Move.NO_MOVE;
+                }
+            }
+        }
+    }
+
+    /** MVV-LVA: the most valuable victim first, the cheapest attacker breaking ties; queen promotions count as a queen won. */
+    private void scoreCaptures() {
+        Bitboard board = state.board;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int attacker = Piece.type(board.getPieceAt(Move.from(move)));
+            int victim = capturedType(board, move);
+            int score = victim == Piece.NONE ? 0 : (victim + 1) * 16 - attacker;
+            if (Move.flag(move) == Move.PROMOTION) score += Move.promotionType(move) * 16;
+            scores[i] = score;
+        }
+    }
+
+    /** History score, with the middlegame piece-square gain breaking ties while the history is still empty. */
+    private void scoreQuiets() {
+        Bitboard board = state.board;
+        int us = state.sideToMove();
+        int sign = us == Piece.WHITE ? 1 : -1;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int piece = board.getPieceAt(Move.from(move));
+            scores[i] = history.score(us, piece, move, ply) + sign * (Evaluation.mg(Evaluation.psqt(piece, Move.to(move)))
+                    - Evaluation.mg(Evaluation.psqt(piece, Move.from(move))));
+        }
+    }
+
+    /** Selection step: swaps the highest scored remaining move into place and returns it. */
+    private int pickBest() {
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (scores[i] > scores[best]) best = i;
+        }
+        int move = moves[best];
+        moves[best] = moves[index];
+        moves[index] = move;
+        int score = scores[best];
+        scores[best] = scores[index];
+        scores[index] = score;
+        index++;
+        return move;
+    }
+
+    /** An under-promotion, or a capture that loses material in the static exchange. */
+    private boolean isLosing(int move) {
+        if (Move.flag(move) == Move.PROMOTION && Move.promotionType(move) != Piece.QUEEN) return true;
+        return exchange.see(state.board, move) < 0;
+    }
+
+    private boolean isUsableKiller(int move) {
+        return move != Move.NO_MOVE && move != ttMove && !isNoisy(state.board, move)
+                && MoveGenerator.isLegal(state, move);
+    }
+
+    /** Not a capture or promotion: the moves killers and history are about. */
+    static boolean isQuiet(Bitboard board, int move) {
+        return !isNoisy(board, move);
+    }
+
+    private static boolean isNoisy(Bitboard board, int move) {
+        int flag = Move.flag(move);
+        return flag == Move.PROMOTION || flag == Move.EN_PASSANT
+                || (flag == Move.NORMAL && board.getPieceAt(Move.to(move)) != Piece.NONE);
+    }
+
+    private static int capturedType(Bitboard board, int move) {
+        if (Move.flag(move) == Move.EN_PASSANT) return Piece.PAWN;
+        int captured = board.getPieceAt(Move.to(move));
+        return captured == Piece.NONE ? Piece.NONE : Piece.type(captured);
+    }
+}
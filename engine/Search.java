@@ -1,30 +1,110 @@
 package engine;
 
+import board.Piece;
 import evaluation.*;
 import game.*;
 import movegeneration.MoveGenerator;
+import movegeneration.StaticExchange;
 
-import java.util.Comparator;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Search {
     private static final int MAX_QUIESCENCE_DEPTH = 5;
+    // Half-width of the first aspiration window, in centipawns, and the depth it starts at.
+    private static final int ASPIRATION_WINDOW = 25;
+    private static final int ASPIRATION_MIN_DEPTH = 4;
+    // Slack for positional gains when delta pruning: a capture must bring the score this close to alpha.
+    private static final int DELTA_MARGIN = 200;
+    // Null-move pruning: the shallowest depth it is tried at, its base reduction, how much
+    // static-eval surplus over beta buys one more ply of reduction, and the depth from which
+    // a null-move cutoff is confirmed by a real search before it is trusted.
+    private static final int NULL_MOVE_MIN_DEPTH = 3;
+    private static final int NULL_MOVE_REDUCTION = 3;
+    private static final int NULL_MOVE_EVAL_MARGIN = 200;
+    private static final int NULL_MOVE_VERIFY_DEPTH = 10;
+    public static final int MAX_PLY = 128;
     private long startTime;
-    private long timeLimit = 10000;
+    public static final int DEFAULT_TIME_LIMIT = 10000;
+    private long timeLimit = DEFAULT_TIME_LIMIT;
     private boolean timeUp = false;
-
-    public final int CHECKMATE_SCORE = 100000;
-    public final int DRAW_SCORE = 0;
+    // Set from outside (UCI stop, or the main thread finishing) to end the search early; shared by Lazy SMP threads.
+    private final AtomicBoolean stop;
+    // Whether the main thread prints a UCI info line per completed depth; off for benchmarks.
+    private boolean reportProgress = true;
+
+    // Scores are centipawns from the side to move's view. A mate found at ply p scores
+    // CHECKMATE_SCORE - p, so everything fits the 16-bit table field and shorter mates score higher.
+    public static final int CHECKMATE_SCORE = 32000;
+    public static final int INFINITY = CHECKMATE_SCORE + 1;
+    public static final int MATE_BOUND = CHECKMATE_SCORE - MAX_PLY;
+    public static final int DRAW_SCORE = 0;
 
     private int searchDepth = 5;
-    //private long nodeCount = 0;
+    // Each thread counts its own nodes; totals are summed on demand so threads never write a shared counter.
+    private long nodeCount = 0;
+    // Move-ordering quality: beta cutoffs in alphaBeta, and how many came from the first move tried.
+    private long failHighs;
+    private long firstMoveFailHighs;
+    private final TranspositionTable transpositionTable;
+    private final PawnTable pawnTable = new PawnTable();
+
+    // Lazy SMP: 0 is the main thread, which reports progress; helpers skip depths to desynchronise.
+    private final int threadIndex;
+    private Search[] team = {this};
+    private int completedDepth;
+    private int completedScore;
+    private int completedMove = Move.NO_MOVE;
+    private int rootScore;
+
+    private static final int[] SKIP_SIZE = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+    private static final int[] SKIP_PHASE = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+    // One move picker per ply, preallocated so the search does not allocate.
+    private final History history = new History();
+    private final StaticExchange exchange = new StaticExchange();
+    private final MovePicker[] pickers = new MovePicker[MAX_PLY];
+    private final int[][] quietsTried = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+    // Whether the move played at each ply of the current line was a null move.
+    private final boolean[] nullMovePlayed = new boolean[MAX_PLY];
+    // Null moves are off above this ply while a verification search runs.
+    private int nullMoveMinPly;
 
 
     public Search() {
+        this(DEFAULT_TIME_LIMIT, new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
     }
 
     public Search(int timeLimit) {
+        this(timeLimit, new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
+    }
+
+    public Search(int timeLimit, TranspositionTable transpositionTable) {
+        this(timeLimit, transpositionTable, 0, new AtomicBoolean());
+    }
+
+    Search(long timeLimit, TranspositionTable transpositionTable, int threadIndex, AtomicBoolean stop) {
         this.timeLimit = timeLimit;
+        this.transpositionTable = transpositionTable;
+        this.threadIndex = threadIndex;
+        this.stop = stop;
+        for (int i = 0; i < MAX_PLY; i++) pickers[i] = new MovePicker(history, exchange);
+    }
+
+    void setTeam(Search[] team) {
+        this.team = team;
+    }
+
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /** Asks the running search to return as soon as possible with its best move so far. */
+    public void stop() {
+        stop.set(true);
+    }
+
+    public void setReportProgress(boolean reportProgress) {
+        this.reportProgress = reportProgress;
     }
 
     public void setSearchDepth(int depth) {
@@ -35,6 +115,50 @@ public class Search {
         return this.searchDepth;
     }
 
+    /** Nodes visited by the last search: every alpha-beta and quiescence call, counted once. */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /** Nodes of every thread working on this search. */
+    private long teamNodeCount() {
+        long total = 0;
+        for (Search search : team) total += search.nodeCount;
+        return total;
+    }
+
+    /** This thread's pawn-structure cache; its statistics accumulate across searches. */
+    public PawnTable getPawnTable() {
+        return pawnTable;
+    }
+
+    /** Beta cutoffs in the main search during the last search. */
+    public long getFailHighs() {
+        return failHighs;
+    }
+
+    /** Beta cutoffs produced by the first move searched; divided by {@link #getFailHighs()}, the ordering hit rate. */
+    public long getFirstMoveFailHighs() {
+        return firstMoveFailHighs;
+    }
+
+    /** Forgets killers and history, for a new game or a reproducible bench. */
+    public void clearHistory() {
+        history.clear();
+    }
+
+    int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    int getCompletedScore() {
+        return completedScore;
+    }
+
+    int getCompletedMove() {
+        return completedMove;
+    }
+
     public Move findBestMove(GameState gameState, int maxDepth) {
         return findBestMoveIterative(gameState, maxDepth);
     }
@@ -42,129 +166,333 @@ public class Search {
     private Move findBestMoveIterative(GameState gameState, int maxDepth) {
         startTime = System.currentTimeMillis();
         timeUp = false;
+        nodeCount = 0;
+        failHighs = 0;
+        firstMoveFailHighs = 0;
+        completedDepth = 0;
+        completedScore = 0;
+        completedMove = Move.NO_MOVE;
+        nullMoveMinPly = 0;
+        if (threadIndex == 0) transpositionTable.newSearch();
+        history.newSearch();
+        maxDepth = Math.min(maxDepth, MAX_PLY - MAX_QUIESCENCE_DEPTH - 1);
 
-        Move bestMove = null;
         for (int depth = 1; depth <= maxDepth; depth++) {
-            Move currentBestMove = alphaBetaRoot(gameState, depth);
-            //System.out.println("Current Best Move:" + currentBestMove);
-            //System.out.println("\n-----------depth: " + depth);
-            if (!timeUp) bestMove = currentBestMove;
-            else break;
+            if (skipDepth(depth)) continue;
+            if (depth > 1) history.newIteration();
+            int currentBestMove = aspirationSearch(gameState, depth);
+            if (timeUp) break;
+            if (currentBestMove == Move.NO_MOVE) {
+                // Checkmate or stalemate at the root: no deeper search can change the result.
+                completedScore = gameState.isInCheck() ? -CHECKMATE_SCORE : DRAW_SCORE;
+                if (threadIndex == 0 && reportProgress) System.out.println("info depth 0 score " + formatScore(completedScore));
+                break;
+            }
+            completedDepth = depth;
+            completedMove = currentBestMove;
+            completedScore = rootScore;
+            if (threadIndex == 0 && reportProgress) {
+                System.out.println("info depth " + depth + " score " + formatScore(completedScore)
+                        + " nodes " + teamNodeCount() + " time " + (System.currentTimeMillis() - startTime)
+                        + " hashfull " + transpositionTable.hashfull() + " pv " + Move.toUCI(completedMove));
+            }
         }
-        //System.out.println("Nodes searched: " + nodeCount);
-        return bestMove;
+        return Move.decode(completedMove);
     }
 
-    private Move alphaBetaRoot(GameState gameState, int depth) {
-        List<Move> legalMoves = MoveGenerator.generateLegalMoves(gameState);
-        orderMoves(gameState, legalMoves);
+    /** UCI score field: centipawns, or moves to mate (negative when being mated). */
+    private static String formatScore(int score) {
+        if (score > MATE_BOUND) return "mate " + (CHECKMATE_SCORE - score + 1) / 2;
+        if (score < -MATE_BOUND) return "mate " + -(CHECKMATE_SCORE + score) / 2;
+        return "cp " + score;
+    }
 
-        Move bestMove = null;
-        double bestScore = Double.NEGATIVE_INFINITY;
+    /** Helper threads skip a staggered subset of depths so they do not all search the same tree. */
+    private boolean skipDepth(int depth) {
+        if (threadIndex == 0) return false;
+        int i = (threadIndex - 1) % SKIP_SIZE.length;
+        return ((depth + SKIP_PHASE[i]) / SKIP_SIZE[i]) % 2 != 0;
+    }
 
-        double alpha = Double.NEGATIVE_INFINITY;
-        double beta = Double.POSITIVE_INFINITY;
+    /**
+     * Searches the root in a narrow window around the previous iteration's score, widening
+     * the side that failed until the score lands inside. Shallow depths and mate scores are
+     * too unstable to guess, so they get the full window, as does the first depth this search
+     * completes (a helper thread skipping the early depths has no previous score yet).
+     */
+    private int aspirationSearch(GameState gameState, int depth) {
+        int delta = ASPIRATION_WINDOW;
+        int alpha = -INFINITY;
+        int beta = INFINITY;
+        if (depth >= ASPIRATION_MIN_DEPTH && completedDepth > 0 && Math.abs(completedScore) < MATE_BOUND) {
+            alpha = Math.max(completedScore - delta, -INFINITY);
+            beta = Math.min(completedScore + delta, INFINITY);
+        }
+        while (true) {
+            int bestMove = alphaBetaRoot(gameState, depth, alpha, beta);
+            if (timeUp) return bestMove;
+            if (rootScore <= alpha && alpha > -INFINITY) {
+                alpha = Math.max(rootScore - delta, -INFINITY);
+            } else if (rootScore >= beta && beta < INFINITY) {
+                beta = Math.min(rootScore + delta, INFINITY);
+            } else {
+                return bestMove;
+            }
+            delta *= 2;
+        }
+    }
+
+    private int alphaBetaRoot(GameState gameState, int depth, int alpha, int beta) {
+        nodeCount++;
+        long entry = transpositionTable.probe(gameState.hash);
+        MovePicker picker = pickers[0];
+        picker.init(gameState, entry == 0L ? Move.NO_MOVE : TranspositionTable.move(entry), 0);
+
+        int bestMove = Move.NO_MOVE;
+        int bestScore = -INFINITY;
+        int alphaOrig = alpha;
+        boolean first = true;
 
-        for (Move move : legalMoves) {
+        int move;
+        while ((move = picker.next()) != Move.NO_MOVE) {
             if (timeExceeded()) {
                 break;
             }
+            history.push(0, gameState.board.getPieceAt(Move.from(move)), Move.to(move));
+            nullMovePlayed[0] = false;
 
-            Delta delta = gameState.deltaMove(move);
-            double score = -alphaBeta(gameState, depth - 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 1);
-            gameState.unmakeMove(delta);
-            //System.out.println("Score: " + score + "Move: " + move);
+            gameState.makeMove(move);
+            int score = principalVariationSearch(gameState, depth - 1, alpha, beta, 1, first);
+            gameState.unmakeMove(move);
+            first = false;
             if (score > bestScore) {
                 bestScore = score;
                 bestMove = move;
-                //System.out.println("switch");
             }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) break;
+        }
+        if (!timeUp && bestMove != Move.NO_MOVE) {
+            int bound = bestScore <= alphaOrig ? TranspositionTable.UPPER
+                    : bestScore >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            transpositionTable.store(gameState.hash, bestMove, depth, bound, bestScore, 0);
         }
 
-        System.out.println("Eval: " + (gameState.isWhiteToMove()? bestScore: -bestScore));
+        rootScore = bestScore;
         return bestMove;
     }
 
-    private double alphaBeta(GameState gameState, int depth, double alpha, double beta, int maxDepth) {
-        //nodeCount++;
+    /**
+     * Searches the child reached by a move, from the mover's side. The first move of a node is
+     * expected to be best and gets the full window; the rest only have to be proven worse than
+     * alpha, which a null window does cheaply. A move that beats alpha after all is searched
+     * again with the full window to get its exact score.
+     */
+    private int principalVariationSearch(GameState gameState, int depth, int alpha, int beta, int ply, boolean first) {
+        if (first || beta - alpha == 1) {
+            return -alphaBeta(gameState, depth, -beta, -alpha, ply);
+        }
+        int score = -alphaBeta(gameState, depth, -alpha - 1, -alpha, ply);
+        if (score > alpha && score < beta) {
+            score = -alphaBeta(gameState, depth, -beta, -alpha, ply);
+        }
+        return score;
+    }
+
+    private int alphaBeta(GameState gameState, int depth, int alpha, int beta, int maxDepth) {
         if (timeExceeded()){
             return quiescenceSearch(gameState, alpha, beta, 0, maxDepth);
         }
 
-        if (depth == 0 || gameState.isGameOver()) {
+        if (depth == 0) {
             return quiescenceSearch(gameState, alpha, beta, 0, maxDepth);
         }
+        nodeCount++;
+        if (gameState.isDrawByRule() || gameState.isRepetition()) {
+            return DRAW_SCORE;
+        }
 
-        List<Move> moves = MoveGenerator.generateLegalMoves(gameState);
-        orderMoves(gameState, moves);
-
-        if (moves.isEmpty()) {
-            if (gameState.isInCheck()) {
-                return -CHECKMATE_SCORE + (maxDepth);
-            } else {
-                return DRAW_SCORE;
+        int alphaOrig = alpha;
+        int ttMove = Move.NO_MOVE;
+        long entry = transpositionTable.probe(gameState.hash);
+        if (entry != 0L) {
+            ttMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int ttScore = TranspositionTable.score(entry, maxDepth);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && ttScore >= beta)
+                        || (bound == TranspositionTable.UPPER && ttScore <= alpha)) {
+                    return ttScore;
+                }
             }
         }
 
-        double value = Double.NEGATIVE_INFINITY;
+        boolean inCheck = gameState.isInCheck();
+        if (!inCheck && beta - alpha == 1 && depth >= NULL_MOVE_MIN_DEPTH) {
+            int score = nullMoveSearch(gameState, depth, beta, maxDepth);
+            if (score >= beta) return score;
+        }
 
-        for (Move move : moves) {
-            Delta delta = gameState.deltaMove(move);
-            double score = -alphaBeta(gameState, depth - 1, -beta, -alpha, maxDepth+1);
-            gameState.unmakeMove(delta);
-            if (score > value) value = score;
+        MovePicker picker = pickers[maxDepth];
+        picker.init(gameState, ttMove, maxDepth);
+
+        int value = -INFINITY;
+        int bestMove = Move.NO_MOVE;
+        int moveCount = 0;
+        int[] quiets = quietsTried[maxDepth];
+        int quietCount = 0;
+
+        int move;
+        while ((move = picker.next()) != Move.NO_MOVE) {
+            moveCount++;
+            boolean quiet = MovePicker.isQuiet(gameState.board, move);
+            if (quiet) quiets[quietCount++] = move;
+            history.push(maxDepth, gameState.board.getPieceAt(Move.from(move)), Move.to(move));
+            nullMovePlayed[maxDepth] = false;
+            gameState.makeMove(move);
+            int score = principalVariationSearch(gameState, depth - 1, alpha, beta, maxDepth + 1, moveCount == 1);
+            gameState.unmakeMove(move);
+            if (score > value) {
+                value = score;
+                bestMove = move;
+            }
             if (value > alpha) alpha = value;
-            if (alpha >= beta) break;
+            if (alpha >= beta) {
+                failHighs++;
+                if (moveCount == 1) firstMoveFailHighs++;
+                if (quiet && !timeUp) history.update(gameState.board, gameState.sideToMove(), maxDepth, move, quiets, quietCount, depth);
+                break;
+            }
+        }
+
+        if (moveCount == 0) {
+            return inCheck ? -CHECKMATE_SCORE + maxDepth : DRAW_SCORE;
+        }
+        if (!timeUp) {
+            int bound = value <= alphaOrig ? TranspositionTable.UPPER
+                    : value >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            transpositionTable.store(gameState.hash, bestMove, depth, bound, value, maxDepth);
         }
         return value;
     }
 
-    private double quiescenceSearch(GameState gameState, double alpha, double beta, int currentDepth, int maxDepth) {
-        //nodeCount++;
-        double standPat = Evaluation.evaluate(gameState.board, gameState.isWhiteToMove());
+    /**
+     * Null-move pruning: lets the opponent move twice and searches the result at reduced
+     * depth with a null window at beta. If the position still fails high, a real move would
+     * almost surely do too, so the node is cut. Returns a score below beta when it cannot cut.
+     * <p>
+     * Passing is only an advantage in zugzwang, so the null move is skipped where that is
+     * common (the side to move has only king and pawns), right after another null move and
+     * when the static eval is already below beta. The reduction grows with depth and with the
+     * eval's surplus over beta. At high depth a cutoff is verified by a reduced search without
+     * null moves in the next plies, so a missed zugzwang cannot prune a whole deep subtree.
+     */
+    private int nullMoveSearch(GameState gameState, int depth, int beta, int ply) {
+        if (ply < nullMoveMinPly || nullMovePlayed[ply - 1] || Math.abs(beta) >= MATE_BOUND
+                || !gameState.board.hasNonPawnMaterial(gameState.sideToMove())) {
+            return -INFINITY;
+        }
+        int staticEval = Evaluation.evaluate(gameState, pawnTable);
+        if (staticEval < beta) return -INFINITY;
+
+        int reduction = NULL_MOVE_REDUCTION + depth / 4 + Math.min((staticEval - beta) / NULL_MOVE_EVAL_MARGIN, 3);
+        int nullDepth = Math.max(depth - 1 - reduction, 0);
+        history.push(ply, Piece.NONE, 0);
+        nullMovePlayed[ply] = true;
+        gameState.makeNullMove();
+        int score = -alphaBeta(gameState, nullDepth, -beta, -beta + 1, ply + 1);
+        gameState.unmakeNullMove();
+        nullMovePlayed[ply] = false;
+        if (score < beta || timeUp) return -INFINITY;
+        // A null move cannot prove a mate, only that the position is good enough.
+        if (score >= MATE_BOUND) score = beta;
+        if (depth < NULL_MOVE_VERIFY_DEPTH) return score;
+
+        int minPly = nullMoveMinPly;
+        nullMoveMinPly = ply + Math.max(1, 3 * nullDepth / 4);
+        int verified = alphaBeta(gameState, nullDepth, beta - 1, beta, ply);
+        nullMoveMinPly = minPly;
+        return verified >= beta ? score : -INFINITY;
+    }
+
+    private int quiescenceSearch(GameState gameState, int alpha, int beta, int currentDepth, int maxDepth) {
+        nodeCount++;
+        int ply = maxDepth + currentDepth;
+        // Captures are irreversible, so only the first quiescence node can be a repetition.
+        if (currentDepth == 0 && gameState.isRepetition()) {
+            return DRAW_SCORE;
+        }
+        int standPat = Evaluation.evaluate(gameState, pawnTable);
         if (timeExceeded()) {
             return standPat;
         }
-        if (gameState.isGameOver()) {
-            if (gameState.isInCheck()) return (-CHECKMATE_SCORE + (maxDepth));
+        if (!MoveGenerator.hasLegalMove(gameState)) {
+            if (gameState.isInCheck()) return -CHECKMATE_SCORE + ply;
             else return DRAW_SCORE;
         }
+        if (gameState.isDrawByRule()) {
+            return DRAW_SCORE;
+        }
         if (currentDepth >= MAX_QUIESCENCE_DEPTH) {
             return standPat;
         }
 
+        int ttMove = Move.NO_MOVE;
+        long entry = transpositionTable.probe(gameState.hash);
+        if (entry != 0L) {
+            ttMove = TranspositionTable.move(entry);
+            int ttScore = TranspositionTable.score(entry, ply);
+            int bound = TranspositionTable.bound(entry);
+            if ((bound == TranspositionTable.EXACT)
+                    || (bound == TranspositionTable.LOWER && ttScore >= beta)
+                    || (bound == TranspositionTable.UPPER && ttScore <= alpha)) {
+                return ttScore;
+            }
+        }
+
         if (standPat >= beta) return beta;
+        int alphaOrig = alpha;
         if (alpha < standPat) alpha = standPat;
 
-        List<Move> captures = MoveGenerator.generateCaptures(gameState);
-
-        for (Move move : captures) {
-            Delta delta = gameState.deltaMove(move);
-            double score = -quiescenceSearch(gameState, -beta, -alpha, currentDepth + 1, maxDepth);
-            gameState.unmakeMove(delta);
+        MovePicker picker = pickers[ply];
+        picker.initQuiescence(gameState, ttMove);
+        int bestMove = Move.NO_MOVE;
 
-            if (score >= beta) return beta;
-            if (score > alpha) alpha = score;
+        int move;
+        while ((move = picker.next()) != Move.NO_MOVE) {
+            // Delta pruning: even winning the piece outright would leave us short of alpha.
+            if (standPat + StaticExchange.captureGain(gameState.board, move) + DELTA_MARGIN <= alpha) {
+                continue;
+            }
+            gameState.makeMove(move);
+            int score = -quiescenceSearch(gameState, -beta, -alpha, currentDepth + 1, maxDepth);
+            gameState.unmakeMove(move);
+
+            if (score >= beta) {
+                if (!timeUp) {
+                    transpositionTable.store(gameState.hash, move, 0, TranspositionTable.LOWER, beta, ply);
+                }
+                return beta;
+            }
+            if (score > alpha) {
+                alpha = score;
+                bestMove = move;
+            }
         }
 
+        if (!timeUp) {
+            int bound = alpha > alphaOrig ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            transpositionTable.store(gameState.hash, bestMove, 0, bound, alpha, ply);
+        }
         return alpha;
     }
 
-    private void orderMoves(GameState gameState, List<Move> moves) {
-        moves.sort((m1, m2) -> Integer.compare(getMovePriority(m2), getMovePriority(m1)));
-    }
-
-    private int getMovePriority(Move move) {
-        MoveType moveType = move.getMoveType();
-        if (moveType.isPromotion()) return 3;
-        else if (moveType == MoveType.CAPTURES) return 2;
-        else if (moveType == MoveType.EN_PASSANT) return 1;
-        else return 0;
-    }
-
     private boolean timeExceeded() {
         if (timeUp) return true;
-        if (System.currentTimeMillis() - startTime > timeLimit) {
+        // The main thread always finishes depth 1, so even an immediate stop has a move to report.
+        if (threadIndex == 0 && completedDepth == 0) return false;
+        if (stop.get() || System.currentTimeMillis() - startTime > timeLimit) {
             timeUp = true;
             return true;
         }
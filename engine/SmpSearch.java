@@ -0,0 +1,135 @@
+package engine;
+
+import game.GameState;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lazy SMP: every thread runs an ordinary iterative-deepening search of the same position
+ * on its own {@link GameState} copy and with its own move buffers and node counter, and
+ * they cooperate only through the shared transposition table. Helpers skip staggered
+ * depths so they fill the table ahead of the main thread. The main thread runs on the
+ * caller's thread; when it finishes, the helpers are stopped and the deepest completed
+ * result wins, ties going to the higher score.
+ */
+public class SmpSearch {
+    public static final int MAX_THREADS = 256;
+
+    private final Search[] searches;
+    private final AtomicBoolean stop = new AtomicBoolean();
+    private final ExecutorService helpers;
+
+    public SmpSearch(int threads, long timeLimit, TranspositionTable transpositionTable) {
+        searches = new Search[Math.max(1, Math.min(threads, MAX_THREADS))];
+        for (int i = 0; i < searches.length; i++) {
+            searches[i] = new Search(timeLimit, transpositionTable, i, stop);
+            searches[i].setTeam(searches);
+        }
+        helpers = searches.length > 1 ? Executors.newFixedThreadPool(searches.length - 1, runnable -> {
+            Thread thread = new Thread(runnable, "search-helper");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public int getThreads() {
+        return searches.length;
+    }
+
+    public void setTimeLimit(long timeLimit) {
+        for (Search search : searches) search.setTimeLimit(timeLimit);
+    }
+
+    public void stop() {
+        stop.set(true);
+    }
+
+    /** Whether the main thread prints a UCI info line per completed depth. */
+    public void setReportProgress(boolean reportProgress) {
+        for (Search search : searches) search.setReportProgress(reportProgress);
+    }
+
+    /**
+     * Clears the stop flag for the next search. Call it on the thread that issues the search,
+     * before handing it to another thread, so a stop that arrives before the search starts
+     * still ends it; {@link #findBestMove} leaves the flag set when it returns.
+     */
+    public void clearStop() {
+        stop.set(false);
+    }
+
+    /** Total over all threads of the last search. */
+    public long getNodeCount() {
+        long total = 0;
+        for (Search search : searches) total += search.getNodeCount();
+        return total;
+    }
+
+    /** Beta cutoffs over all threads of the last search. */
+    public long getFailHighs() {
+        long total = 0;
+        for (Search search : searches) total += search.getFailHighs();
+        return total;
+    }
+
+    public long getFirstMoveFailHighs() {
+        long total = 0;
+        for (Search search : searches) total += search.getFirstMoveFailHighs();
+        return total;
+    }
+
+    /** Clears every thread's killers and history. */
+    public void clearHistory() {
+        for (Search search : searches) search.clearHistory();
+    }
+
+    /** Pawn-hash hit rate over every thread since this search was created, in per mille. */
+    public int getPawnHitRate() {
+        long probes = 0;
+        long hits = 0;
+        for (Search search : searches) {
+            probes += search.getPawnTable().getProbes();
+            hits += search.getPawnTable().getHits();
+        }
+        return probes == 0 ? 0 : (int) (hits * 1000 / probes);
+    }
+
+    /** Searches until done or stopped; call {@link #clearStop()} first. */
+    public Move findBestMove(GameState gameState, int maxDepth) {
+        Future<?>[] running = new Future<?>[searches.length];
+        for (int i = 1; i < searches.length; i++) {
+            Search helper = searches[i];
+            GameState copy = new GameState(gameState);
+            running[i] = helpers.submit(() -> helper.findBestMove(copy, maxDepth));
+        }
+
+        searches[0].findBestMove(gameState, maxDepth);
+        stop.set(true);
+        for (int i = 1; i < searches.length; i++) {
+            try {
+                running[i].get();
+            } catch (Exception e) {
+                System.err.println("Error in search helper: " + e.getMessage());
+            }
+        }
+
+        Search best = searches[0];
+        for (Search search : searches) {
+            if (search.getCompletedDepth() > best.getCompletedDepth()
+                    || (search.getCompletedDepth() == best.getCompletedDepth()
+                        && search.getCompletedScore() > best.getCompletedScore())) {
+                best = search;
+            }
+        }
+        return Move.decode(best.getCompletedMove());
+    }
+
+    /** Stops the helper threads for good; call when replacing this search. */
+    public void shutdown() {
+        stop();
+        if (helpers != null) helpers.shutdownNow();
+    }
+}
@@ -0,0 +1,137 @@
+package engine;
+
+/**
+ * Fixed-size transposition table shared by every search.
+ * Entries live in a flat {@code long[]} as (key ^ data, data) pairs grouped into
+ * buckets of four, so a bucket fits one cache line. Storing the key XOR-ed with the
+ * data lets threads read and write without locks: a torn entry simply fails the key check.
+ * <p>
+ * Data layout: move (16 bits) | depth (8) | bound (2) | age (6) | score (16, centipawns),
+ * leaving the top 16 bits free.
+ */
+public class TranspositionTable {
+    public static final int UPPER = 1;
+    public static final int LOWER = 2;
+    public static final int EXACT = 3;
+
+    public static final int DEFAULT_SIZE_MB = 16;
+    public static final int MAX_SIZE_MB = 4096;
+
+    private static final int BUCKET_SIZE = 4;
+    private static final int MATE_THRESHOLD = Search.MATE_BOUND;
+
+    private final long[] table;
+    private final long bucketCount;
+    private int age;
+
+    public TranspositionTable(int sizeMb) {
+        long entries = (long) Math.max(1, Math.min(sizeMb, MAX_SIZE_MB)) * 1024 * 1024 / 16;
+        long buckets = Math.min(entries / BUCKET_SIZE, Integer.MAX_VALUE / (2 * BUCKET_SIZE));
+        this.bucketCount = buckets;
+        this.table = new long[(int) (buckets * BUCKET_SIZE * 2)];
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(table, 0L);
+        age = 0;
+    }
+
+    /** Called once per "go" so entries from earlier searches are replaced first. */
+    public void newSearch() {
+        age = (age + 1) & 63;
+    }
+
+    /** Returns the stored data for the position, or 0 if it is not in the table. */
+    public long probe(long key) {
+        int base = bucketIndex(key);
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            int slot = base + 2 * i;
+            long data = table[slot + 1];
+            if ((table[slot] ^ data) == key && data != 0L) {
+                return data;
+            }
+        }
+        return 0L;
+    }
+
+    public void store(long key, int move, int depth, int bound, int score, int ply) {
+        int base = bucketIndex(key);
+        int victim = base;
+        int worst = Integer.MAX_VALUE;
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            int slot = base + 2 * i;
+            long data = table[slot + 1];
+            if (data == 0L) {
+                victim = slot;
+                break;
+            }
+            if ((table[slot] ^ data) == key) {
+                // A shallower result for the same position (quiescence stores depth 0) must not
+                // erase a deeper one from this search, unless it is exact.
+                if (depth < depth(data) && bound != EXACT && age(data) == age) return;
+                victim = slot;
+                if (move == Move.NO_MOVE) move = move(data);
+                break;
+            }
+            // Prefer to overwrite shallow entries and entries left over from older searches.
+            int value = depth(data) - 8 * ((age - age(data)) & 63);
+            if (value < worst) {
+                worst = value;
+                victim = slot;
+            }
+        }
+
+        long data = (move & 0xFFFF)
+                | ((long) Math.min(depth, 255) << 16)
+                | ((long) bound << 24)
+                | ((long) age << 26)
+                | ((long) (toStored(score, ply) & 0xFFFF) << 32);
+        table[victim] = key ^ data;
+        table[victim + 1] = data;
+    }
+
+    /** Approximate table occupancy in permille, sampled from the first thousand entries. */
+    public int hashfull() {
+        int used = 0;
+        int samples = (int) Math.min(1000, bucketCount * BUCKET_SIZE);
+        for (int i = 0; i < samples; i++) {
+            long data = table[2 * i + 1];
+            if (data != 0L && age(data) == age) used++;
+        }
+        return used * 1000 / samples;
+    }
+
+    public static int move(long data) {
+        return (int) (data & 0xFFFF);
+    }
+
+    public static int depth(long data) {
+        return (int) ((data >>> 16) & 0xFF);
+    }
+
+    public static int bound(long data) {
+        return (int) ((data >>> 24) & 3);
+    }
+
+    private static int age(long data) {
+        return (int) ((data >>> 26) & 63);
+    }
+
+    /** Mate scores are stored relative to the node, so they stay valid at any ply. */
+    public static int score(long data, int ply) {
+        int score = (short) (data >>> 32);
+        if (score > MATE_THRESHOLD) return score - ply;
+        if (score < -MATE_THRESHOLD) return score + ply;
+        return score;
+    }
+
+    private static int toStored(int score, int ply) {
+        if (score > MATE_THRESHOLD) return score + ply;
+        if (score < -MATE_THRESHOLD) return score - ply;
+        return score;
+    }
+
+    private int bucketIndex(long key) {
+        return (int) (((key >>> 32) * bucketCount) >>> 32) * BUCKET_SIZE * 2;
+    }
+}
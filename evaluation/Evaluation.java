@@ -1,9 +1,11 @@
 package evaluation;
-import board.Bitboard;
+import game.GameState;
+import pieces.Pawn;
 import utils.*;
+
+import static board.Piece.*;
+
 public class Evaluation {
-    private static final int WHITE = 0;
-    private static final int BLACK = 1;
     private static final int MAX_GAME_PHASE = 24;
     private static final int[][] pieceValue = {
             {82, 337, 365, 477, 1025, 12000}, //mg
@@ -12,6 +14,7 @@ public class Evaluation {
     private static final int CONNECTED_PAWN_BONUS = 6;
     private static final int DOUBLED_PAWN_PENALTY = 13;
     private static final int ISOLATED_PAWN_PENALTY = 12;
+    private static final int[] PHASE_WEIGHT = {0, 1, 1, 2, 4, 0};
 
     private static final int [][] midgamePST = new int[][] {
             //pawn
@@ -124,59 +127,100 @@ public class Evaluation {
                     -12,  17,  14,  17,  17,  38,  23,  11,
                     -74, -35, -18, -18, -11,  15,   4, -17}};
 
-    public static double evaluate(Bitboard bb, boolean isWhiteToMove){
-        int gamePhase = 0;
-        double score = 0;
-        gamePhase += Long.bitCount(bb.wknights);
-        gamePhase += Long.bitCount(bb.wbishops);
-        gamePhase += Long.bitCount(bb.wrooks) * 2;
-        gamePhase += Long.bitCount(bb.wqueens) * 4;
-        gamePhase += Long.bitCount(bb.bknights);
-        gamePhase += Long.bitCount(bb.bbishops);
-        gamePhase += Long.bitCount(bb.brooks) * 2;
-        gamePhase += Long.bitCount(bb.bqueens) * 4;
-
-        score += scorePiece(bb.wpawns, 0, WHITE, gamePhase);
-        score += scorePiece(bb.wknights, 1, WHITE, gamePhase);
-        score += scorePiece(bb.wbishops, 2, WHITE, gamePhase);
-        score += scorePiece(bb.wrooks, 3, WHITE, gamePhase);
-        score += scorePiece(bb.wqueens, 4, WHITE, gamePhase);
-        score += scorePiece(bb.wking, 5, WHITE, gamePhase);
-
-        score -= scorePiece(bb.bpawns, 0, BLACK, gamePhase);
-        score -= scorePiece(bb.bknights, 1, BLACK, gamePhase);
-        score -= scorePiece(bb.bbishops, 2, BLACK, gamePhase);
-        score -= scorePiece(bb.brooks, 3, BLACK, gamePhase);
-        score -= scorePiece(bb.bqueens, 4, BLACK, gamePhase);
-        score -= scorePiece(bb.bking, 5, BLACK, gamePhase);
-
-        score += connectedPawnBonus(bb.wpawns, WHITE);
-        score -= connectedPawnBonus(bb.bpawns, BLACK);
-        score -= pawnStructurePenalty(bb.wpawns, WHITE);
-        score += pawnStructurePenalty(bb.bpawns, BLACK);
-
-        return isWhiteToMove? score/100: -score/100;
+    /*
+     * Material plus piece-square value per piece code and square, white positive and black
+     * negative with the square already mirrored, packed as mg + (eg << 16). GameState sums
+     * these incrementally, so evaluation only unpacks and tapers. King material is left out:
+     * both kings are always on the board, so it would cancel anyway and only waste range.
+     */
+    private static final int[] PSQT = new int[12 * 64];
+    private static final int[] PHASE = new int[12];
+
+    static {
+        for (int color = WHITE; color <= BLACK; color++) {
+            int sign = color == WHITE ? 1 : -1;
+            for (int type = PAWN; type <= KING; type++) {
+                int piece = make(color, type);
+                PHASE[piece] = PHASE_WEIGHT[type];
+                int mgValue = type == KING ? 0 : pieceValue[0][type];
+                int egValue = type == KING ? 0 : pieceValue[1][type];
+                for (int sq = 0; sq < 64; sq++) {
+                    int index = color == WHITE ? sq : sq ^ 56;
+                    PSQT[piece * 64 + sq] = sign * pack(mgValue + midgamePST[type][index], egValue + endgamePST[type][index]);
+                }
+            }
+        }
+    }
+
+    private static int pack(int mg, int eg) {
+        return (eg << 16) + mg;
+    }
+
+    /** Middlegame half of a packed value such as {@link #psqt(int, int)}. */
+    public static int mg(int packed) {
+        return (short) packed;
+    }
+
+    private static int eg(int packed) {
+        return (packed + 0x8000) >> 16;
+    }
+
+    /** Middlegame material value of a piece type, for exchange and pruning decisions. */
+    public static int pieceValue(int type) {
+        return pieceValue[0][type];
+    }
+
+    /** Packed material and piece-square value of one piece on one square. */
+    public static int psqt(int piece, int square) {
+        return PSQT[piece * 64 + square];
     }
-    private static double scorePiece(long bitboard, int pieceType, int color, int gamePhase){
-        int mgScore = 0;
-        int egScore = 0;
-        while (bitboard != 0) {
-            int sq = Long.numberOfTrailingZeros(bitboard);
-            bitboard &= bitboard - 1;
-            int index = (color == WHITE) ? sq : mirror(sq);
-            mgScore += pieceValue[0][pieceType] + midgamePST[pieceType][index];
-            egScore += pieceValue[1][pieceType] + endgamePST[pieceType][index];
+
+    /** Game-phase weight of a piece: 1 per minor, 2 per rook, 4 per queen, 24 at the start. */
+    public static int phase(int piece) {
+        return PHASE[piece];
+    }
+
+    /** Centipawns from the side to move's point of view, tapered between middlegame and endgame by material. */
+    public static int evaluate(GameState state) {
+        return evaluate(state, null);
+    }
+
+    /** As {@link #evaluate(GameState)}, taking the pawn-structure terms from {@code pawnTable} when given. */
+    public static int evaluate(GameState state, PawnTable pawnTable){
+        // Promotions can push the count past the starting material.
+        int gamePhase = Math.min(state.phase, MAX_GAME_PHASE);
+        int score = (mg(state.psqt) * gamePhase + eg(state.psqt) * (MAX_GAME_PHASE - gamePhase)) / MAX_GAME_PHASE;
+
+        if (pawnTable != null) {
+            score += pawnTable.score(pawnTable.probe(state));
+        } else {
+            score += pawnScore(state.board.pieces[WHITE][PAWN], state.board.pieces[BLACK][PAWN]);
         }
 
-        double mgWeight = (double) gamePhase / MAX_GAME_PHASE;
-        double egWeight = 1.0 - mgWeight;
+        return state.isWhiteToMove() ? score : -score;
+    }
 
-        return (mgScore * mgWeight + egScore * egWeight);
+    /** Every pawn-only term, from white's point of view; cached by {@link PawnTable}. */
+    static int pawnScore(long whitePawns, long blackPawns) {
+        return connectedPawnBonus(whitePawns, WHITE) - connectedPawnBonus(blackPawns, BLACK)
+                - pawnStructurePenalty(whitePawns) + pawnStructurePenalty(blackPawns);
     }
 
-    private static int mirror(int square) {
-        return (square ^ 56) & 63;
+    /** Squares the pawns could ever attack as they advance: their attacks filled towards promotion. */
+    static long pawnAttackSpan(long pawns, int color) {
+        long span = Pawn.getAttacksFrom(pawns, color);
+        if (color == WHITE) {
+            span |= span << 8;
+            span |= span << 16;
+            span |= span << 32;
+        } else {
+            span |= span >>> 8;
+            span |= span >>> 16;
+            span |= span >>> 32;
+        }
+        return span;
     }
+
     private static int connectedPawnBonus(long pawns, int color) {
         int bonus = 0;
         if (color == WHITE) {
@@ -195,27 +239,19 @@ public class Evaluation {
         }
         return bonus;
     }
-    private static int pawnStructurePenalty(long pawns, int color) {
-        int penalty = 0;
-        long[] files = {
-                BitboardUtils.FILE_A, BitboardUtils.FILE_B, BitboardUtils.FILE_C, BitboardUtils.FILE_D,
-                BitboardUtils.FILE_E, BitboardUtils.FILE_F, BitboardUtils.FILE_G, BitboardUtils.FILE_H
-        };
-        for (int i = 0; i < 8; i++) {
-            long file = files[i];
-            long pawnsOnFile = pawns & file;
-            int count = Long.bitCount(pawnsOnFile);
-            if (count > 1) {
-                penalty += (count - 1) * DOUBLED_PAWN_PENALTY;
-            }
-            boolean isolated = true;
-            if (i > 0 && (pawns & files[i - 1]) != 0) isolated = false;
-            if (i < 7 && (pawns & files[i + 1]) != 0) isolated = false;
-            if (count > 0 && isolated) {
-                penalty += count * ISOLATED_PAWN_PENALTY;
-            }
-        }
-        return penalty;
+    private static int pawnStructurePenalty(long pawns) {
+        // Every file holding a pawn, marked on the first rank.
+        long files = pawns;
+        files |= files >>> 8;
+        files |= files >>> 16;
+        files |= files >>> 32;
+        files &= BitboardUtils.RANK_1;
+        long neighbours = ((files << 1) & ~BitboardUtils.FILE_A) | ((files >>> 1) & ~BitboardUtils.FILE_H);
+        neighbours *= BitboardUtils.FILE_A;
+
+        int doubled = Long.bitCount(pawns) - Long.bitCount(files);
+        int isolated = Long.bitCount(pawns & ~neighbours);
+        return doubled * DOUBLED_PAWN_PENALTY + isolated * ISOLATED_PAWN_PENALTY;
     }
 
 }
@@ -0,0 +1,97 @@
+package evaluation;
+
+import game.GameState;
+
+import static board.Piece.*;
+
+/**
+ * Cache of pawn-structure results keyed by {@link GameState#pawnHash}. Pawn moves are rare
+ * inside a search tree, so almost every evaluation finds its pawn terms here. Each search
+ * thread owns its own table, so entries are plain arrays without the lock-free key trick of
+ * the transposition table. An always-replace slot per key is enough at this hit rate.
+ * <p>
+ * Besides the score, an entry keeps each side's pawn attack span (every square its pawns
+ * could attack by advancing), which later terms such as outposts or passed pawns can reuse.
+ */
+public class PawnTable {
+    public static final int DEFAULT_SIZE_KB = 512;
+
+    // 8 bytes of key, 4 of score and 16 of spans per entry.
+    private static final int ENTRY_BYTES = 28;
+
+    private final long[] keys;
+    private final int[] scores;
+    private final long[] spans;
+    private final int indexMask;
+    private long probes;
+    private long hits;
+
+    public PawnTable() {
+        this(DEFAULT_SIZE_KB);
+    }
+
+    public PawnTable(int sizeKb) {
+        int entries = Integer.highestOneBit(Math.max(1, (int) Math.min(1L << 24, sizeKb * 1024L / ENTRY_BYTES)));
+        keys = new long[entries];
+        scores = new int[entries];
+        spans = new long[entries * 2];
+        indexMask = entries - 1;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(keys, 0L);
+        java.util.Arrays.fill(scores, 0);
+        java.util.Arrays.fill(spans, 0L);
+        probes = 0;
+        hits = 0;
+    }
+
+    /**
+     * Returns the index of the entry for the position's pawns, filling it first on a miss.
+     * An empty slot has key 0 and holds the result for "no pawns", which is also what the
+     * pawnless key 0 maps to, so it needs no separate valid flag.
+     */
+    public int probe(GameState state) {
+        long key = state.pawnHash;
+        int index = (int) key & indexMask;
+        probes++;
+        if (keys[index] == key) {
+            hits++;
+            return index;
+        }
+        long whitePawns = state.board.pieces[WHITE][PAWN];
+        long blackPawns = state.board.pieces[BLACK][PAWN];
+        keys[index] = key;
+        scores[index] = Evaluation.pawnScore(whitePawns, blackPawns);
+        spans[2 * index] = Evaluation.pawnAttackSpan(whitePawns, WHITE);
+        spans[2 * index + 1] = Evaluation.pawnAttackSpan(blackPawns, BLACK);
+        return index;
+    }
+
+    /** Pawn-structure score of an entry in centipawns, from white's point of view. */
+    public int score(int entry) {
+        return scores[entry];
+    }
+
+    public long attackSpan(int entry, int color) {
+        return spans[2 * entry + color];
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /** Hit rate since the last {@link #clear()} or {@link #resetStats()}, in per mille. */
+    public int hitRate() {
+        return probes == 0 ? 0 : (int) (hits * 1000 / probes);
+    }
+
+    public void resetStats() {
+        probes = 0;
+        hits = 0;
+    }
+}
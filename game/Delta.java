@@ -1,24 +1,22 @@
 package game;
 
-import engine.MoveType;
-
 public class Delta {
     public int from, to;
-    public char movedPiece, capturedPiece, promotionPiece;
+    public int movedPiece, capturedPiece;
     public boolean whiteToMove;
     public boolean wKCastle, wQCastle, bKCastle, bQCastle;
     public int enPassant;
     public int halfCount, fullCount;
-    public MoveType movetype;
+    public int flag;
+    public long hash;
 
-    public Delta(int from, int to, char movedPiece, char capturedPiece, char promotionPiece,
+    public Delta(int from, int to, int movedPiece, int capturedPiece,
                  boolean whiteToMove, boolean wKCastle, boolean wQCastle, boolean bKCastle, boolean bQCastle,
-                 int enPassant, int halfCount, int fullCount, MoveType movetype){
+                 int enPassant, int halfCount, int fullCount, int flag, long hash){
         this.from = from;
         this.to = to;
         this.movedPiece = movedPiece;
         this.capturedPiece = capturedPiece;
-        this.promotionPiece = promotionPiece;
         this.whiteToMove = whiteToMove;
         this.wKCastle = wKCastle;
         this.wQCastle = wQCastle;
@@ -27,7 +25,8 @@ public class Delta {
         this.enPassant = enPassant;
         this.halfCount = halfCount;
         this.fullCount = fullCount;
-        this.movetype = movetype;
+        this.flag = flag;
+        this.hash = hash;
     }
 
 }
@@ -1,18 +1,46 @@
 package game;
 import board.*;
 import engine.Move;
-import engine.MoveType;
+import evaluation.Evaluation;
+import pieces.Pawn;
 import movegeneration.MoveGenerator;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
 
 import static engine.Move.squareToAlgebraic;
 
-public class GameState {
+public final class GameState {
     public Bitboard board;
     public boolean whiteToMove;
     public boolean whiteKingCastle, whiteQueenCastle, blackKingCastle, blackQueenCastle;
     public int enPassant, fullCount, halfCount;
+    public long hash;
+    // Zobrist key of the pawns only, for the pawn-structure cache.
+    public long pawnHash;
+    // Packed material + piece-square sum (see Evaluation.psqt) and game phase, kept up to date by make/unmake.
+    public int psqt, phase;
+
+    /*
+     * Undo stack, one entry per move made: whatever makeMove overwrites that the move
+     * itself cannot restore. Preallocated and only grown, so make/unmake never allocate.
+     * undoHash doubles as the position history for repetition detection: it covers every
+     * move applied to this state, the game moves from the position command as well as
+     * the current search path.
+     */
+    private static final int INITIAL_UNDO_SIZE = 512;
+    private int[] undoCaptured = new int[INITIAL_UNDO_SIZE];
+    private int[] undoCastling = new int[INITIAL_UNDO_SIZE];
+    private int[] undoEnPassant = new int[INITIAL_UNDO_SIZE];
+    private int[] undoHalfCount = new int[INITIAL_UNDO_SIZE];
+    private long[] undoHash = new long[INITIAL_UNDO_SIZE];
+    private long[] undoPawnHash = new long[INITIAL_UNDO_SIZE];
+    private int[] undoPsqt = new int[INITIAL_UNDO_SIZE];
+    private int[] undoPhase = new int[INITIAL_UNDO_SIZE];
+    // Written by makeNullMove only: plies since the previous null move, which a real move just counts up.
+    private int[] undoPliesFromNull = new int[INITIAL_UNDO_SIZE];
+    private int undoTop;
+    // Plies since the last null move (or since this state was set up); bounds the repetition scan.
+    private int pliesFromNull;
 
     public GameState() {
         this.board = new Bitboard(true);
@@ -24,6 +52,9 @@ public class GameState {
         this.enPassant = -1;
         this.fullCount = 0;
         this.halfCount = 0;
+        this.hash = Zobrist.hash(this);
+        this.pawnHash = Zobrist.pawnHash(this);
+        refreshAccumulators();
     }
 
     public GameState(Bitboard board, boolean whiteToMove, boolean whiteKingCastle,
@@ -38,6 +69,9 @@ public class GameState {
         this.enPassant = enPassant;
         this.fullCount = fullCount;
         this.halfCount = halfCount;
+        this.hash = Zobrist.hash(this);
+        this.pawnHash = Zobrist.pawnHash(this);
+        refreshAccumulators();
     }
 
     public GameState(GameState other) {
@@ -50,150 +84,278 @@ public class GameState {
         this.enPassant = other.enPassant;
         this.halfCount = other.halfCount;
         this.fullCount = other.fullCount;
+        this.hash = other.hash;
+        this.pawnHash = other.pawnHash;
+        this.psqt = other.psqt;
+        this.phase = other.phase;
+        this.undoCaptured = Arrays.copyOf(other.undoCaptured, other.undoCaptured.length);
+        this.undoCastling = Arrays.copyOf(other.undoCastling, other.undoCastling.length);
+        this.undoEnPassant = Arrays.copyOf(other.undoEnPassant, other.undoEnPassant.length);
+        this.undoHalfCount = Arrays.copyOf(other.undoHalfCount, other.undoHalfCount.length);
+        this.undoHash = Arrays.copyOf(other.undoHash, other.undoHash.length);
+        this.undoPawnHash = Arrays.copyOf(other.undoPawnHash, other.undoPawnHash.length);
+        this.undoPsqt = Arrays.copyOf(other.undoPsqt, other.undoPsqt.length);
+        this.undoPhase = Arrays.copyOf(other.undoPhase, other.undoPhase.length);
+        this.undoPliesFromNull = Arrays.copyOf(other.undoPliesFromNull, other.undoPliesFromNull.length);
+        this.undoTop = other.undoTop;
+        this.pliesFromNull = other.pliesFromNull;
     }
 
     public void makeMove(Move move) {
-        int from = move.getFromSquare();
-        int to = move.getToSquare();
-        char piece = board.getPieceAt(from);
-        char captured = board.getPieceAt(to);
-        MoveType moveType = move.getMoveType();
-        char promoPiece = move.getPromotion();
+        makeMove(move.encode());
+    }
 
+    public void makeMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int us = sideToMove();
+        int piece = board.getPieceAt(from);
+        int captured = board.getPieceAt(to);
+        boolean isPawn = Piece.type(piece) == Piece.PAWN;
+        int flag = Move.flag(move);
+
+        if (undoTop == undoHash.length) growUndoStack();
+        undoCaptured[undoTop] = flag == Move.EN_PASSANT ? Piece.make(us ^ 1, Piece.PAWN) : captured;
+        undoCastling[undoTop] = castlingRights();
+        undoEnPassant[undoTop] = enPassant;
+        undoHalfCount[undoTop] = halfCount;
+        undoHash[undoTop] = hash;
+        undoPawnHash[undoTop] = pawnHash;
+        undoPsqt[undoTop] = psqt;
+        undoPhase[undoTop] = phase;
+        undoTop++;
+
+        long h = hash ^ Zobrist.castlingKey(castlingRights())
+                ^ Zobrist.enPassantKey(enPassant) ^ Zobrist.sideKey();
         enPassant = -1;
 
-        if (Character.toLowerCase(piece) == 'p' || captured != ' ') {
+        if (isPawn || captured != Piece.NONE) {
             halfCount = 0;
         } else {
             halfCount++;
         }
-        if (!whiteToMove) {
-            fullCount++;
-        }
-
-        if (moveType == MoveType.EN_PASSANT) {
-            int capSq = whiteToMove ? to - 8 : to + 8;
-            board.clearSquare(capSq);
-            board.movePiece(from, to, piece);
-
+        pliesFromNull++;
+        fullCount += us;
+
+        if (flag == Move.EN_PASSANT) {
+            int capSq = to - 8 + 16 * us;
+            board.removePiece(capSq);
+            board.movePiece(from, to);
+            h ^= Zobrist.pieceKey(piece, from) ^ Zobrist.pieceKey(piece, to)
+                    ^ Zobrist.pieceKey(Piece.make(us ^ 1, Piece.PAWN), capSq);
+            psqt += Evaluation.psqt(piece, to) - Evaluation.psqt(piece, from)
+                    - Evaluation.psqt(Piece.make(us ^ 1, Piece.PAWN), capSq);
+            pawnHash ^= Zobrist.pieceKey(piece, from) ^ Zobrist.pieceKey(piece, to)
+                    ^ Zobrist.pieceKey(Piece.make(us ^ 1, Piece.PAWN), capSq);
         }
-        else if (moveType == MoveType.CASTLING) {
-            board.movePiece(from, to, piece);
-            if (to == 6) board.movePiece(7, 5, 'R');
-            else if (to == 2) board.movePiece(0, 3, 'R');
-            else if (to == 62) board.movePiece(63, 61, 'r');
-            else if (to == 58) board.movePiece(56, 59, 'r');
-
+        else if (flag == Move.CASTLING) {
+            int rook = Piece.make(us, Piece.ROOK);
+            int rookFrom = to > from ? to + 1 : to - 2;
+            int rookTo = (from + to) / 2;
+            board.movePiece(from, to);
+            board.movePiece(rookFrom, rookTo);
+            h ^= Zobrist.pieceKey(piece, from) ^ Zobrist.pieceKey(piece, to)
+                    ^ Zobrist.pieceKey(rook, rookFrom) ^ Zobrist.pieceKey(rook, rookTo);
+            psqt += Evaluation.psqt(piece, to) - Evaluation.psqt(piece, from)
+                    + Evaluation.psqt(rook, rookTo) - Evaluation.psqt(rook, rookFrom);
         }
-        else if (moveType.isPromotion()) {
-            board.clearSquare(from);
-            if (captured != ' ') board.clearSquare(to);
-            if (whiteToMove) {
-                promoPiece = Character.toUpperCase(promoPiece);
-            }
-            else {
-                promoPiece = Character.toLowerCase(promoPiece);
-            }
-            board.setBit(promoPiece, to);
-
+        else if (flag == Move.PROMOTION) {
+            int promoted = Piece.make(us, Move.promotionType(move));
+            board.removePiece(from);
+            board.removePiece(to);
+            board.addPiece(promoted, to);
+            h ^= Zobrist.pieceKey(piece, from) ^ Zobrist.pieceKey(promoted, to);
+            psqt += Evaluation.psqt(promoted, to) - Evaluation.psqt(piece, from);
+            phase += Evaluation.phase(promoted);
+            pawnHash ^= Zobrist.pieceKey(piece, from);
         }
         else {
-            board.movePiece(from, to, piece);
+            board.movePiece(from, to);
+            h ^= Zobrist.pieceKey(piece, from) ^ Zobrist.pieceKey(piece, to);
+            psqt += Evaluation.psqt(piece, to) - Evaluation.psqt(piece, from);
+            if (isPawn) pawnHash ^= Zobrist.pieceKey(piece, from) ^ Zobrist.pieceKey(piece, to);
         }
-        if (piece == 'K') {
-            whiteKingCastle = false;
-            whiteQueenCastle = false;
-        } else if (piece == 'k') {
-            blackKingCastle = false;
-            blackQueenCastle = false;
+        if (captured != Piece.NONE) {
+            h ^= Zobrist.pieceKey(captured, to);
+            psqt -= Evaluation.psqt(captured, to);
+            phase -= Evaluation.phase(captured);
+            if (Piece.type(captured) == Piece.PAWN) pawnHash ^= Zobrist.pieceKey(captured, to);
         }
-        if (piece == 'R') {
-            if (from == 0) whiteQueenCastle = false;
-            else if (from == 7) whiteKingCastle = false;
-        } else if (piece == 'r') {
-            if (from == 56) blackQueenCastle = false;
-            else if (from == 63) blackKingCastle = false;
-        }
-        if (captured == 'R') {
-            if (to == 0) whiteQueenCastle = false;
-            else if (to == 7) whiteKingCastle = false;
-        } else if (captured == 'r') {
-            if (to == 56) blackQueenCastle = false;
-            else if (to == 63) blackKingCastle = false;
-        }
-        if (Character.toLowerCase(piece) == 'p' && Math.abs(from - to) == 16) {
+
+        // Anything leaving or landing on a king or rook home square ends the matching rights.
+        whiteKingCastle &= from != 4 && from != 7 && to != 7;
+        whiteQueenCastle &= from != 4 && from != 0 && to != 0;
+        blackKingCastle &= from != 60 && from != 63 && to != 63;
+        blackQueenCastle &= from != 60 && from != 56 && to != 56;
+
+        if (isPawn && Math.abs(from - to) == 16) {
             enPassant = (from + to) / 2;
         }
         whiteToMove = !whiteToMove;
+        hash = h ^ Zobrist.castlingKey(castlingRights())
+                ^ Zobrist.enPassantKey(enPassant);
     }
     public Delta deltaMove(Move move) {
-        int from = move.getFromSquare();
-        int to = move.getToSquare();
-        char piece = board.getPieceAt(from);
-        char captured;
-        MoveType moveType = move.getMoveType();
-        char promoPiece = move.getPromotion();
-
-        if (moveType == MoveType.EN_PASSANT) {
-            captured = whiteToMove ? 'p' : 'P';
-        }
-        else if (moveType.isPromotion()) {
-            captured = board.getPieceAt(to);
+        return deltaMove(move.encode());
+    }
+
+    /** Makes the move and returns a {@link Delta} describing it, for callers outside the search. */
+    public Delta deltaMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int piece = board.getPieceAt(from);
+        int captured;
+        int flag = Move.flag(move);
+
+        if (flag == Move.EN_PASSANT) {
+            captured = Piece.make(sideToMove() ^ 1, Piece.PAWN);
         }
         else {
             captured = board.getPieceAt(to);
         }
 
-        Delta delta = new Delta(from, to, piece, captured, promoPiece,
+        Delta delta = new Delta(from, to, piece, captured,
                 this.whiteToMove, this.whiteKingCastle, this.whiteQueenCastle,
                 this.blackKingCastle, this.blackQueenCastle,
                 this.enPassant, this.halfCount, this.fullCount,
-                moveType);
+                flag, this.hash);
 
         makeMove(move);
         return delta;
     }
 
-    public void unmakeMove(Delta delta) {
-        whiteToMove = delta.whiteToMove;
-        whiteKingCastle = delta.wKCastle;
-        whiteQueenCastle = delta.wQCastle;
-        blackKingCastle = delta.bKCastle;
-        blackQueenCastle = delta.bQCastle;
-        enPassant = delta.enPassant;
-        halfCount = delta.halfCount;
-        fullCount = delta.fullCount;
-
-        MoveType moveType = delta.movetype;
-
-        if (moveType == MoveType.CASTLING) {
-            if (delta.to == 6) board.movePiece(5, 7, 'R');
-            else if (delta.to == 2) board.movePiece(3, 0, 'R');
-            else if (delta.to == 62) board.movePiece(61, 63, 'r');
-            else if (delta.to == 58) board.movePiece(59, 56, 'r');
+    /** Takes back the last move made; {@code move} must be that move. */
+    public void unmakeMove(int move) {
+        undoTop--;
+        pliesFromNull--;
+        whiteToMove = !whiteToMove;
+        int us = sideToMove();
+        fullCount -= us;
+        setCastlingRights(undoCastling[undoTop]);
+        enPassant = undoEnPassant[undoTop];
+        halfCount = undoHalfCount[undoTop];
+        hash = undoHash[undoTop];
+        pawnHash = undoPawnHash[undoTop];
+        psqt = undoPsqt[undoTop];
+        phase = undoPhase[undoTop];
+
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int flag = Move.flag(move);
+
+        if (flag == Move.CASTLING) {
+            int rookFrom = to > from ? to + 1 : to - 2;
+            board.movePiece((from + to) / 2, rookFrom);
         }
 
-        board.clearSquare(delta.to);
-
-        if (moveType.isPromotion()) {
-            char originalPawn = Character.isUpperCase(delta.movedPiece) ? 'P' : 'p';
-            board.setBit(originalPawn, delta.from);
+        if (flag == Move.PROMOTION) {
+            board.removePiece(to);
+            board.addPiece(Piece.make(us, Piece.PAWN), from);
         }
         else {
-            board.setBit(delta.movedPiece, delta.from);
+            board.movePiece(to, from);
         }
 
-        if (delta.capturedPiece != ' ') {
-            if (moveType == MoveType.EN_PASSANT) {
-                int capturedPawnSq = delta.whiteToMove ? delta.to - 8 : delta.to + 8;
-                board.setBit(delta.capturedPiece, capturedPawnSq);
-            }
-            else {
-                board.setBit(delta.capturedPiece, delta.to);
+        int captured = undoCaptured[undoTop];
+        if (captured != Piece.NONE) {
+            board.addPiece(captured, flag == Move.EN_PASSANT ? to - Pawn.forward(us) : to);
+        }
+    }
+
+    /**
+     * Passes the turn without moving, for null-move pruning: flips the side to move, clears
+     * en passant and updates the hash, saving the old state on the undo stack. The halfmove
+     * clock ticks as for any reversible move, so the fifty-move rule still holds below it, but
+     * the repetition scan stops at the null: a null move is not a legal way to repeat.
+     */
+    public void makeNullMove() {
+        if (undoTop == undoHash.length) growUndoStack();
+        undoCaptured[undoTop] = Piece.NONE;
+        undoCastling[undoTop] = castlingRights();
+        undoEnPassant[undoTop] = enPassant;
+        undoHalfCount[undoTop] = halfCount;
+        undoHash[undoTop] = hash;
+        undoPawnHash[undoTop] = pawnHash;
+        undoPsqt[undoTop] = psqt;
+        undoPhase[undoTop] = phase;
+        undoPliesFromNull[undoTop] = pliesFromNull;
+        undoTop++;
+
+        fullCount += sideToMove();
+        hash ^= Zobrist.enPassantKey(enPassant) ^ Zobrist.enPassantKey(-1) ^ Zobrist.sideKey();
+        enPassant = -1;
+        halfCount++;
+        pliesFromNull = 0;
+        whiteToMove = !whiteToMove;
+    }
+
+    /** Takes back {@link #makeNullMove()}. */
+    public void unmakeNullMove() {
+        undoTop--;
+        whiteToMove = !whiteToMove;
+        fullCount -= sideToMove();
+        enPassant = undoEnPassant[undoTop];
+        halfCount = undoHalfCount[undoTop];
+        pliesFromNull = undoPliesFromNull[undoTop];
+        hash = undoHash[undoTop];
+    }
+
+    /** Compatibility wrapper for {@link #deltaMove(int)}; the undo stack holds the actual state. */
+    public void unmakeMove(Delta delta) {
+        unmakeMove(Move.pack(delta.from, delta.to, delta.flag));
+    }
+
+    private void growUndoStack() {
+        int size = undoHash.length * 2;
+        undoCaptured = Arrays.copyOf(undoCaptured, size);
+        undoCastling = Arrays.copyOf(undoCastling, size);
+        undoEnPassant = Arrays.copyOf(undoEnPassant, size);
+        undoHalfCount = Arrays.copyOf(undoHalfCount, size);
+        undoHash = Arrays.copyOf(undoHash, size);
+        undoPawnHash = Arrays.copyOf(undoPawnHash, size);
+        undoPsqt = Arrays.copyOf(undoPsqt, size);
+        undoPhase = Arrays.copyOf(undoPhase, size);
+        undoPliesFromNull = Arrays.copyOf(undoPliesFromNull, size);
+    }
+
+    /** Recomputes the evaluation accumulators from the board; make/unmake keep them current after that. */
+    private void refreshAccumulators() {
+        psqt = 0;
+        phase = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            int piece = board.getPieceAt(sq);
+            if (piece != Piece.NONE) {
+                psqt += Evaluation.psqt(piece, sq);
+                phase += Evaluation.phase(piece);
             }
         }
     }
 
+    /** Castling rights as a mask: 1 white king side, 2 white queen side, 4 black king side, 8 black queen side. */
+    public int castlingRights() {
+        return (whiteKingCastle ? 1 : 0) | (whiteQueenCastle ? 2 : 0) | (blackKingCastle ? 4 : 0) | (blackQueenCastle ? 8 : 0);
+    }
+
+    private void setCastlingRights(int rights) {
+        whiteKingCastle = (rights & 1) != 0;
+        whiteQueenCastle = (rights & 2) != 0;
+        blackKingCastle = (rights & 4) != 0;
+        blackQueenCastle = (rights & 8) != 0;
+    }
+
+    public boolean canCastleKingside(int color) {
+        return color == Piece.WHITE ? whiteKingCastle : blackKingCastle;
+    }
+
+    public boolean canCastleQueenside(int color) {
+        return color == Piece.WHITE ? whiteQueenCastle : blackQueenCastle;
+    }
+
+    /** The side to move as a {@link Piece} colour. */
+    public int sideToMove() {
+        return whiteToMove ? Piece.WHITE : Piece.BLACK;
+    }
+
     public Bitboard getBoard() {
         return board;
     }
@@ -229,6 +391,10 @@ public class GameState {
         return halfCount;
     }
 
+    public long getHash() {
+        return hash;
+    }
+
     public String toString() {
         return "GameState{" +
                 "whiteToMove=" + whiteToMove +
@@ -244,32 +410,15 @@ public class GameState {
 
     public String toFEN() {
         StringBuilder FEN = new StringBuilder();
-        long occupy = board.getOccupied();
-        long white = board.getWhitePieces();
-        long black = board.getBlackPieces();
         int count = 0;
         for (int i = 0; i < 64; i++) {
-            long target = 1L << i;
-            if ((occupy & target) == 0) {
+            int piece = board.getPieceAt(i);
+            if (piece == Piece.NONE) {
                 count++;
             } else {
                 if (count != 0)
                     FEN.append(Integer.toString(count));
-                if ((white & target) != 0) {
-                    if ((board.wpawns & target) != 0) FEN.append("P");
-                    else if ((board.wknights & target) != 0) FEN.append("N");
-                    else if ((board.wbishops & target) != 0) FEN.append("B");
-                    else if ((board.wrooks & target) != 0) FEN.append("R");
-                    else if ((board.wqueens & target) != 0) FEN.append("Q");
-                    else FEN.append("K");
-                } else {
-                    if ((board.bpawns & target) != 0) FEN.append("p");
-                    else if ((board.bknights & target) != 0) FEN.append("n");
-                    else if ((board.bbishops & target) != 0) FEN.append("b");
-                    else if ((board.brooks & target) != 0) FEN.append("r");
-                    else if ((board.bqueens & target) != 0) FEN.append("q");
-                    else FEN.append("k");
-                }
+                FEN.append(Piece.toChar(piece));
                 count = 0;
 
             }
@@ -333,8 +482,9 @@ public class GameState {
         String b = part1.toString();
 
         for (int i = 0; i < 64; i++){
-            if (b.charAt(i) != 'e'){
-                bb.setBit(b.charAt(i), i);
+            int piece = Piece.fromChar(b.charAt(i));
+            if (piece != Piece.NONE){
+                bb.addPiece(piece, i);
             }
         }
 
@@ -361,26 +511,48 @@ public class GameState {
         return new GameState(bb, whiteToMove, wK, wQ, bK, bQ, enPassant, halfmove, fullmove);
     }
     public boolean isGameOver() {
-        List<Move> allMoves = MoveGenerator.generateLegalMoves(this);
-        if (allMoves.isEmpty()) {
+        if (!MoveGenerator.hasLegalMove(this)) {
             return true;
         }
-        if (isInsufficientMaterial(board))
-            return true;
+        return isDrawByRule() || repetitions() >= 2;
+    }
 
-        if (halfCount >= 100)
-            return true;
+    /**
+     * True if the current position occurred before. The search scores this as a draw
+     * straight away: if repeating was good once, it is good again, so the line can only
+     * end in threefold repetition.
+     */
+    public boolean isRepetition() {
+        // Only positions since the last capture, pawn move or null move can recur, and only with the same side to move.
+        int oldest = Math.max(0, undoTop - Math.min(halfCount, pliesFromNull));
+        for (int i = undoTop - 4; i >= oldest; i -= 2) {
+            if (undoHash[i] == hash) return true;
+        }
         return false;
     }
+
+    /** How many times the current position occurred before; 2 means threefold repetition. */
+    public int repetitions() {
+        int count = 0;
+        int oldest = Math.max(0, undoTop - Math.min(halfCount, pliesFromNull));
+        for (int i = undoTop - 4; i >= oldest; i -= 2) {
+            if (undoHash[i] == hash) count++;
+        }
+        return count;
+    }
+    /** Fifty-move rule or insufficient material, the draws that need no move generation. */
+    public boolean isDrawByRule() {
+        return halfCount >= 100 || isInsufficientMaterial(board);
+    }
     public boolean isInCheck() {
-        return MoveGenerator.isInCheck(board, whiteToMove);
+        return MoveGenerator.isInCheck(board, sideToMove());
     }
     public boolean isInsufficientMaterial(Bitboard bb) {
-        if ((bb.wpawns | bb.bpawns | bb.wrooks | bb.brooks | bb.wqueens | bb.bqueens) != 0) {
+        if ((bb.getPieces(Piece.PAWN) | bb.getPieces(Piece.ROOK) | bb.getPieces(Piece.QUEEN)) != 0) {
             return false;
         }
-        int whiteMinors = Long.bitCount(bb.wbishops) + Long.bitCount(bb.wknights);
-        int blackMinors = Long.bitCount(bb.bbishops) + Long.bitCount(bb.bknights);
+        int whiteMinors = Long.bitCount(bb.pieces[Piece.WHITE][Piece.BISHOP] | bb.pieces[Piece.WHITE][Piece.KNIGHT]);
+        int blackMinors = Long.bitCount(bb.pieces[Piece.BLACK][Piece.BISHOP] | bb.pieces[Piece.BLACK][Piece.KNIGHT]);
         if (whiteMinors > 1 || blackMinors > 1) return false;
         if (whiteMinors == 0 && blackMinors == 0) return true;
         return false;
@@ -0,0 +1,125 @@
+package game;
+
+import engine.Move;
+import movegeneration.MoveGenerator;
+import movegeneration.Perft;
+
+/**
+ * Self-check of {@link GameState}'s make/unmake and null-move API. It walks the move tree of
+ * every {@link Perft#REFERENCE_POSITIONS reference position}, trying a null move wherever the
+ * side to move is not in check, and verifies that:
+ * <ul>
+ * <li>the incremental hash and pawn hash match a recomputation after every move;
+ * <li>unmaking restores the FEN, hash, pawn hash, halfmove clock and repetition state.
+ * </ul>
+ * It also replays fixed lines to check the repetition window around null moves and the
+ * fifty-move rule below one.
+ *
+ * <p>Run with no arguments; it exits non-zero on any failure.
+ */
+public final class UndoCheck {
+    private static final int DEPTH = 3;
+
+    private long nodes;
+    private long failures;
+
+    private UndoCheck() {
+    }
+
+    public static void main(String[] args) {
+        UndoCheck check = new UndoCheck();
+        for (Perft.Position position : Perft.REFERENCE_POSITIONS) {
+            check.walk(GameState.fromFEN(position.fen()), DEPTH, new int[DEPTH + 1][MoveGenerator.MAX_MOVES]);
+        }
+        check.report("make/unmake and null moves over " + check.nodes + " nodes", check.failures == 0);
+        check.checkRepetitionAcrossNull();
+        check.checkFiftyMovesAcrossNull();
+        System.exit(check.failures == 0 ? 0 : 1);
+    }
+
+    private void walk(GameState state, int depth, int[][] buffers) {
+        nodes++;
+        if (state.hash != Zobrist.hash(state) || state.pawnHash != Zobrist.pawnHash(state)) {
+            fail("incremental hash differs from recomputation at " + state.toFEN());
+        }
+        if (depth == 0) return;
+
+        String fen = state.toFEN();
+        long hash = state.hash;
+        long pawnHash = state.pawnHash;
+        int halfCount = state.halfCount;
+        boolean repetition = state.isRepetition();
+        int repetitions = state.repetitions();
+
+        int[] moves = buffers[depth];
+        int count = MoveGenerator.generateLegalMoves(state, moves);
+        for (int i = 0; i < count; i++) {
+            state.makeMove(moves[i]);
+            walk(state, depth - 1, buffers);
+            state.unmakeMove(moves[i]);
+            expectUnchanged(state, fen, hash, pawnHash, halfCount, repetition, repetitions, Move.toUCI(moves[i]));
+        }
+
+        if (!state.isInCheck()) {
+            state.makeNullMove();
+            if (state.enPassant != -1 || state.halfCount != halfCount + 1 || state.isRepetition()) {
+                fail("null move left en passant, halfmove clock or repetition wrong at " + fen);
+            }
+            walk(state, depth - 1, buffers);
+            state.unmakeNullMove();
+            expectUnchanged(state, fen, hash, pawnHash, halfCount, repetition, repetitions, "null");
+        }
+    }
+
+    private void expectUnchanged(GameState state, String fen, long hash, long pawnHash, int halfCount,
+                                 boolean repetition, int repetitions, String move) {
+        if (!state.toFEN().equals(fen) || state.hash != hash || state.pawnHash != pawnHash
+                || state.halfCount != halfCount || state.isRepetition() != repetition
+                || state.repetitions() != repetitions) {
+            fail("unmaking " + move + " did not restore " + fen);
+        }
+    }
+
+    /**
+     * Knight shuffles: a position reached again through real moves repeats, one that only
+     * recurs because null moves passed the turn does not, and repeating below the null does.
+     */
+    private void checkRepetitionAcrossNull() {
+        GameState state = new GameState();
+        play(state, "g1f3", "g8f6", "f3g1", "f6g8");
+        boolean before = state.isRepetition();
+
+        state.makeNullMove();
+        play(state, "g8f6");
+        state.makeNullMove();
+        play(state, "f6g8");
+        boolean acrossNull = state.isRepetition();
+
+        play(state, "g1f3", "g8f6", "f3g1", "f6g8");
+        boolean belowNull = state.isRepetition();
+
+        report("repetition window around null moves", before && !acrossNull && belowNull);
+    }
+
+    /** The halfmove clock keeps counting through a null move, so the fifty-move rule still applies. */
+    private void checkFiftyMovesAcrossNull() {
+        GameState state = GameState.fromFEN("4k3/8/8/8/8/8/8/R3K3 w - - 99 80");
+        state.makeNullMove();
+        boolean draw = state.isDrawByRule();
+        state.unmakeNullMove();
+        report("fifty-move rule across a null move", draw && state.halfCount == 99);
+    }
+
+    private static void play(GameState state, String... moves) {
+        for (String move : moves) state.makeMove(Move.fromUCI(move));
+    }
+
+    private void report(String name, boolean passed) {
+        if (!passed) failures++;
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+    }
+
+    private void fail(String message) {
+        if (failures++ < 10) System.out.println("FAIL " + message);
+    }
+}
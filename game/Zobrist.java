@@ -1,12 +1,14 @@
 package game;
 
+import board.Piece;
+
 import java.util.Random;
 
 public class Zobrist {
-    private static long[][] pieceSquareKeys = new long [12][64];
-    private static long[] enPassantKeys = new long[9];
-    private static long[] castlingKeys = new long [16];
-    private static long whiteToMoveKey;
+    private static final long[][] pieceSquareKeys = new long [12][64];
+    private static final long[] enPassantKeys = new long[9];
+    private static final long[] castlingKeys = new long [16];
+    private static final long whiteToMoveKey;
 
     static {
         Random rng = new Random(123456789);
@@ -23,4 +25,47 @@ public class Zobrist {
         }
         whiteToMoveKey = rng.nextLong();
     }
+
+    public static long pieceKey(int piece, int square) {
+        return pieceSquareKeys[piece][square];
+    }
+
+    /** Key for a castling-rights mask as returned by {@link GameState#castlingRights()}. */
+    public static long castlingKey(int rights) {
+        return castlingKeys[rights];
+    }
+
+    public static long enPassantKey(int square) {
+        return enPassantKeys[square == -1 ? 8 : square % 8];
+    }
+
+    public static long sideKey() {
+        return whiteToMoveKey;
+    }
+
+    /** Computes the hash of a position from scratch; make/unmake keep it up to date afterwards. */
+    public static long hash(GameState state) {
+        long hash = 0L;
+        for (int square = 0; square < 64; square++) {
+            int piece = state.board.getPieceAt(square);
+            if (piece != Piece.NONE) hash ^= pieceKey(piece, square);
+        }
+        hash ^= castlingKey(state.castlingRights());
+        hash ^= enPassantKey(state.enPassant);
+        if (state.whiteToMove) hash ^= whiteToMoveKey;
+        return hash;
+    }
+
+    /** Hash of the pawns alone, for the pawn-structure cache; 0 when there are none. */
+    public static long pawnHash(GameState state) {
+        long hash = 0L;
+        for (int color = Piece.WHITE; color <= Piece.BLACK; color++) {
+            long pawns = state.board.pieces[color][Piece.PAWN];
+            while (pawns != 0) {
+                hash ^= pieceKey(Piece.make(color, Piece.PAWN), Long.numberOfTrailingZeros(pawns));
+                pawns &= pawns - 1;
+            }
+        }
+        return hash;
+    }
 }
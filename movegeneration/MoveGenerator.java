@@ -1,6 +1,5 @@
 package movegeneration;
 import board.*;
-import game.Delta;
 import game.GameState;
 import pieces.*;
 import engine.*;
@@ -8,332 +7,598 @@ import utils.BitboardUtils;
 import java.util.ArrayList;
 import java.util.List;
 
+import static board.Piece.*;
+
 public class MoveGenerator {
+    /** Upper bound on the number of pseudo-legal moves in any reachable position. */
+    public static final int MAX_MOVES = 256;
+
+    /** Boundary helper for UCI parsing and the console game; the search uses the int[] overloads. */
     public static List<Move> generateLegalMoves(GameState gamestate) {
-        List<Move> legalMoves = new ArrayList<>();
-        List<Move> pseudoMoves = generateMoves(gamestate);
-        for (Move move : pseudoMoves) {
-            Delta delta = gamestate.deltaMove(move);
-            boolean inCheck = isInCheck(gamestate.getBoard(), !gamestate.isWhiteToMove());
-            gamestate.unmakeMove(delta);
-            if (!inCheck) {
-                legalMoves.add(move);
-            }
+        int[] buffer = new int[MAX_MOVES];
+        int count = generateLegalMoves(gamestate, buffer);
+        List<Move> legalMoves = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            legalMoves.add(Move.decode(buffer[i]));
         }
         return legalMoves;
     }
 
-    public static List<Move> generateMoves(GameState gamestate) {
-        boolean isWhiteToMove = gamestate.isWhiteToMove();
+    /**
+     * Writes the legal moves into {@code moves} and returns how many there are.
+     * Checkers, pinned pieces and the enemy attack map are computed once, and every
+     * piece is restricted to the squares that keep its own king safe.
+     */
+    public static int generateLegalMoves(GameState gamestate, int[] moves) {
+        int us = gamestate.sideToMove();
+        int them = us ^ 1;
         Bitboard board = gamestate.getBoard();
-        long allies = isWhiteToMove ? board.getWhitePieces() : board.getBlackPieces();
-        long enemy = isWhiteToMove ? board.getBlackPieces() : board.getWhitePieces();
-        long empty = board.getEmpty();
+        long allies = board.colors[us];
+        long enemy = board.colors[them];
+        long occupied = allies | enemy;
+        long empty = ~occupied;
+        long king = board.pieces[us][KING];
+        int kingSq = Long.numberOfTrailingZeros(king);
 
-        boolean castleKing = isWhiteToMove ? gamestate.isWhiteKingCastle() : gamestate.isBlackKingCastle();
-        boolean castleQueen = isWhiteToMove ? gamestate.isWhiteQueenCastle() : gamestate.isBlackQueenCastle();
+        long checkers = attackersTo(board, kingSq, occupied) & enemy;
+        // The king is removed so squares behind it along a checking ray count as attacked.
+        long danger = attackedSquares(board, them, occupied ^ king);
+        boolean castleKing = checkers == 0 && gamestate.canCastleKingside(us);
+        boolean castleQueen = checkers == 0 && gamestate.canCastleQueenside(us);
 
+        int count = generateKingMoves(board, allies, empty, us, castleKing, castleQueen, danger, moves, 0);
+        if ((checkers & (checkers - 1)) != 0) {
+            return count; // double check: only the king can move
+        }
+
+        // In single check, other pieces must capture the checker or block the ray.
+        long targets = checkers == 0 ? -1L
+                : checkers | BitboardUtils.between(kingSq, Long.numberOfTrailingZeros(checkers));
+        long pinned = pinnedPieces(board, kingSq, allies, enemy, us);
         int enPassant = gamestate.getEnPassant();
 
-        List<Move> allMoves = new ArrayList<>();
-        allMoves.addAll(generatePawnMoves(board, enemy, empty, enPassant, isWhiteToMove));
-        allMoves.addAll(generateKnightMoves(board, allies, isWhiteToMove));
-        allMoves.addAll(generateBishopMoves(board, allies, enemy, isWhiteToMove));
-        allMoves.addAll(generateRookMoves(board, allies, enemy, isWhiteToMove));
-        allMoves.addAll(generateQueenMoves(board, allies, enemy, isWhiteToMove));
-        allMoves.addAll(generateKingMoves(board, allies, empty, isWhiteToMove, castleKing, castleQueen));
-        return allMoves;
+        count = generatePawnMoves(board, enemy, empty, enPassant, us, targets, pinned, kingSq, moves, count);
+        count = generateKnightMoves(board, allies, us, targets, pinned, moves, count);
+        count = generateBishopMoves(board, allies, enemy, us, targets, pinned, kingSq, moves, count);
+        count = generateRookMoves(board, allies, enemy, us, targets, pinned, kingSq, moves, count);
+        count = generateQueenMoves(board, allies, enemy, us, targets, pinned, kingSq, moves, count);
+        return count;
     }
 
-    public static List<Move> generatePawnMoves(Bitboard board, long enemy, long empty, int enPassant, boolean isWhiteToMove) {
-        List<Move> pawnMoves = new ArrayList<>();
-        long pawns = isWhiteToMove ? board.wpawns : board.bpawns;
+    /**
+     * Returns true as soon as one legal move is found, for mate and stalemate detection.
+     * Castling never needs checking: it is only legal when the king can also step aside.
+     */
+    public static boolean hasLegalMove(GameState gamestate) {
+        int us = gamestate.sideToMove();
+        int them = us ^ 1;
+        Bitboard board = gamestate.getBoard();
+        long allies = board.colors[us];
+        long enemy = board.colors[them];
+        long occupied = allies | enemy;
+        long empty = ~occupied;
+        long king = board.pieces[us][KING];
+        int kingSq = Long.numberOfTrailingZeros(king);
+
+        long danger = attackedSquares(board, them, occupied ^ king);
+        if ((King.getKingMoves(kingSq, allies) & ~danger) != 0) return true;
+
+        long checkers = attackersTo(board, kingSq, occupied) & enemy;
+        if ((checkers & (checkers - 1)) != 0) return false;
+        long targets = checkers == 0 ? -1L
+                : checkers | BitboardUtils.between(kingSq, Long.numberOfTrailingZeros(checkers));
+        long pinned = pinnedPieces(board, kingSq, allies, enemy, us);
+
+        long[] own = board.pieces[us];
+        long knights = own[KNIGHT] & ~pinned;
+        while (knights != 0) {
+            if ((Knight.getKnightMoves(Long.numberOfTrailingZeros(knights), allies) & targets) != 0) return true;
+            knights &= knights - 1;
+        }
+        long diagonals = own[BISHOP] | own[QUEEN];
+        while (diagonals != 0) {
+            int fromSq = Long.numberOfTrailingZeros(diagonals);
+            if ((Bishop.getBishopMoves(fromSq, allies, enemy) & allowedTargets(fromSq, targets, pinned, kingSq)) != 0) return true;
+            diagonals &= diagonals - 1;
+        }
+        long straights = own[ROOK] | own[QUEEN];
+        while (straights != 0) {
+            int fromSq = Long.numberOfTrailingZeros(straights);
+            if ((Rook.getRookMoves(fromSq, allies, enemy) & allowedTargets(fromSq, targets, pinned, kingSq)) != 0) return true;
+            straights &= straights - 1;
+        }
 
+        int enPassant = gamestate.getEnPassant();
+        long pawns = own[PAWN];
         while (pawns != 0) {
             int fromSq = Long.numberOfTrailingZeros(pawns);
-            int toSq;
             pawns &= pawns - 1;
-            if (isWhiteToMove) {
-                long whitePush1 = Pawn.getWhiteSingleStep(fromSq, empty);
-                if (whitePush1 != 0) {
-                    toSq = Long.numberOfTrailingZeros(whitePush1);
-                    if ((1L << toSq & BitboardUtils.RANK_8) != 0) {
-                        addPromotions(pawnMoves, fromSq, toSq);
-                    } else {
-                        pawnMoves.add(new Move(fromSq, toSq));
-                    }
-                }
-
-                long whitePush2 = Pawn.getWhiteDoubleStep(fromSq, empty);
-                if (whitePush2 != 0) {
-                    toSq = Long.numberOfTrailingZeros(whitePush2);
-                    pawnMoves.add(new Move(fromSq, toSq));
-                }
-                long whiteLeftAttack = Pawn.getWhiteLeftAttack(fromSq, enemy);
-                if (whiteLeftAttack != 0) {
-                    toSq = Long.numberOfTrailingZeros(whiteLeftAttack);
-                    if ((1L << toSq & BitboardUtils.RANK_8) != 0) {
-                        addPromotions(pawnMoves, fromSq, toSq);
-                    } else {
-                        pawnMoves.add(new Move(fromSq, toSq));
-                    }
-                }
-                long whiteRightAttack = Pawn.getWhiteRightAttack(fromSq, enemy);
-                if (whiteRightAttack != 0) {
-                    toSq = Long.numberOfTrailingZeros(whiteRightAttack);
-                    if ((1L << toSq & BitboardUtils.RANK_8) != 0) {
-                        addPromotions(pawnMoves, fromSq, toSq);
-                    } else {
-                        pawnMoves.add(new Move(fromSq, toSq));
-                    }                }
-
-            } else {
-                long blackPush1 = Pawn.getBlackSingleStep(fromSq, empty);
-                if (blackPush1 != 0) {
-                    toSq = Long.numberOfTrailingZeros(blackPush1);
-                    if ((1L << toSq & BitboardUtils.RANK_1) != 0) {
-                        addPromotions(pawnMoves, fromSq, toSq);
-                    } else {
-                        pawnMoves.add(new Move(fromSq, toSq));
-                    }
-                }
-
-                long blackPush2 = Pawn.getBlackDoubleStep(fromSq, empty);
-                if (blackPush2 != 0) {
-                    toSq = Long.numberOfTrailingZeros(blackPush2);
-                    pawnMoves.add(new Move(fromSq, toSq));
-                }
-                long blackLeftAttack = Pawn.getBlackLeftAttack(fromSq, enemy);
-                if (blackLeftAttack != 0) {
-                    toSq = Long.numberOfTrailingZeros(blackLeftAttack);
-                    if ((1L << toSq & BitboardUtils.RANK_1) != 0) {
-                        addPromotions(pawnMoves, fromSq, toSq);
-                    } else {
-                        pawnMoves.add(new Move(fromSq, toSq));
-                    }
-                }
-                long blackRightAttack = Pawn.getBlackRightAttack(fromSq, enemy);
-                if (blackRightAttack != 0) {
-                    toSq = Long.numberOfTrailingZeros(blackRightAttack);
-                    if ((1L << toSq & BitboardUtils.RANK_1) != 0) {
-                        addPromotions(pawnMoves, fromSq, toSq);
-                    } else {
-                        pawnMoves.add(new Move(fromSq, toSq));
-                    }
-                }
+            long pawnTargets = Pawn.getSingleStep(us, fromSq, empty) | Pawn.getDoubleStep(us, fromSq, empty)
+                    | (Pawn.getAttacks(us, fromSq) & enemy);
+            if ((pawnTargets & allowedTargets(fromSq, targets, pinned, kingSq)) != 0) return true;
+            if (enPassant != -1 && (Pawn.getAttacks(us, fromSq) & (1L << enPassant)) != 0
+                    && isLegalEnPassant(board, fromSq, enPassant, us, kingSq)) {
+                return true;
             }
-            if (enPassant != -1) {
-                long enPassantBB = 1L << enPassant;
-                if (isWhiteToMove) {
-                    if ((Pawn.getWhiteLeftAttack(fromSq, enPassantBB)) != 0) {
-                        pawnMoves.add(new Move(fromSq, enPassant, MoveType.EN_PASSANT));
-                    }
-                    if ((Pawn.getWhiteRightAttack(fromSq, enPassantBB)) != 0) {
-                        pawnMoves.add(new Move(fromSq, enPassant, MoveType.EN_PASSANT));
-                    }
-                }
-                else {
-                    if ((Pawn.getBlackLeftAttack(fromSq, enPassantBB)) != 0) {
-                        pawnMoves.add(new Move(fromSq, enPassant, MoveType.EN_PASSANT));
-                    }
-                    if ((Pawn.getBlackRightAttack(fromSq, enPassantBB)) != 0) {
-                        pawnMoves.add(new Move(fromSq, enPassant, MoveType.EN_PASSANT));
-                    }
-                }
+        }
+        return false;
+    }
+
+    /** Pseudo-legal moves, except that king moves and castling are already checked for safety. */
+    public static int generateMoves(GameState gamestate, int[] moves) {
+        int us = gamestate.sideToMove();
+        Bitboard board = gamestate.getBoard();
+        long allies = board.colors[us];
+        long enemy = board.colors[us ^ 1];
+        long empty = board.getEmpty();
+        long king = board.pieces[us][KING];
+        int kingSq = Long.numberOfTrailingZeros(king);
+        long danger = attackedSquares(board, us ^ 1, (allies | enemy) ^ king);
+
+        boolean castleKing = gamestate.canCastleKingside(us);
+        boolean castleQueen = gamestate.canCastleQueenside(us);
+
+        int enPassant = gamestate.getEnPassant();
+
+        int count = generatePawnMoves(board, enemy, empty, enPassant, us, -1L, 0L, kingSq, moves, 0);
+        count = generateKnightMoves(board, allies, us, -1L, 0L, moves, count);
+        count = generateBishopMoves(board, allies, enemy, us, -1L, 0L, kingSq, moves, count);
+        count = generateRookMoves(board, allies, enemy, us, -1L, 0L, kingSq, moves, count);
+        count = generateQueenMoves(board, allies, enemy, us, -1L, 0L, kingSq, moves, count);
+        count = generateKingMoves(board, allies, empty, us, castleKing, castleQueen, danger, moves, count);
+        return count;
+    }
+
+    /** Destination mask for a non-king piece: the check mask, narrowed to the pin line if pinned. */
+    private static long allowedTargets(int fromSq, long targets, long pinned, int kingSq) {
+        if ((pinned & (1L << fromSq)) == 0) return targets;
+        return targets & BitboardUtils.line(kingSq, fromSq);
+    }
+
+    /**
+     * En passant removes two pieces from the capturer's rank, so pins along that rank
+     * are invisible to the normal pin mask; replay the occupancy change and look again.
+     */
+    private static boolean isLegalEnPassant(Bitboard board, int fromSq, int toSq, int us, int kingSq) {
+        int capturedSq = toSq - 8 + 16 * us;
+        long occupied = (board.getOccupied() ^ (1L << fromSq) ^ (1L << capturedSq)) | (1L << toSq);
+        long enemy = board.colors[us ^ 1] & ~(1L << capturedSq);
+        return (attackersTo(board, kingSq, occupied) & enemy) == 0;
+    }
+
+    /** Pieces of the side to move that are the only blocker between their king and an enemy slider. */
+    private static long pinnedPieces(Bitboard board, int kingSq, long allies, long enemy, int us) {
+        long[] theirs = board.pieces[us ^ 1];
+        long diagonals = theirs[BISHOP] | theirs[QUEEN];
+        long straights = theirs[ROOK] | theirs[QUEEN];
+        // Looking through our own pieces finds every slider that could pin one of them.
+        long snipers = (Bishop.getBishopAttacks(kingSq, enemy) & diagonals)
+                | (Rook.getRookAttacks(kingSq, enemy) & straights);
+        long occupied = allies | enemy;
+        long pinned = 0L;
+        while (snipers != 0) {
+            long blockers = BitboardUtils.between(kingSq, Long.numberOfTrailingZeros(snipers)) & occupied;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0) {
+                pinned |= blockers & allies;
             }
+            snipers &= snipers - 1;
+        }
+        return pinned;
+    }
 
+    /** All squares attacked by one side, defended pieces included, with sliders using the given occupancy. */
+    public static long attackedSquares(Bitboard board, int color, long occupied) {
+        long[] own = board.pieces[color];
+        long attacks = Pawn.getAttacksFrom(own[PAWN], color);
+        if (own[KING] != 0L) attacks |= King.getKingAttacks(Long.numberOfTrailingZeros(own[KING]));
+        long knights = own[KNIGHT];
+        while (knights != 0) {
+            attacks |= Knight.getKnightAttacks(Long.numberOfTrailingZeros(knights));
+            knights &= knights - 1;
+        }
+        long diagonals = own[BISHOP] | own[QUEEN];
+        while (diagonals != 0) {
+            attacks |= Bishop.getBishopAttacks(Long.numberOfTrailingZeros(diagonals), occupied);
+            diagonals &= diagonals - 1;
+        }
+        long straights = own[ROOK] | own[QUEEN];
+        while (straights != 0) {
+            attacks |= Rook.getRookAttacks(Long.numberOfTrailingZeros(straights), occupied);
+            straights &= straights - 1;
         }
+        return attacks;
+    }
+
+    /**
+     * Pawn moves a whole set at a time: each shift yields every destination of one kind,
+     * and the origin square is the destination minus the shift. Promotions and en passant
+     * are split off into their own masks so the common case stays a plain serialisation.
+     */
+    public static int generatePawnMoves(Bitboard board, long enemy, long empty, int enPassant, int us,
+                                        long targets, long pinned, int kingSq, int[] moves, int count) {
+        long pawns = board.pieces[us][PAWN];
+        long promotionRank = Pawn.PROMOTION_RANK[us];
+        int forward = Pawn.forward(us);
 
-        return pawnMoves;
+        long push = Pawn.pushForward(pawns, us) & empty;
+        long doublePush = Pawn.pushForward(push, us) & empty & Pawn.DOUBLE_STEP_RANK[us] & targets;
+        push &= targets;
+        long west = Pawn.attacksWest(pawns, us) & enemy & targets;
+        long east = Pawn.attacksEast(pawns, us) & enemy & targets;
+
+        count = addPawnMoves(moves, count, push & ~promotionRank, forward, pinned, kingSq, false);
+        count = addPawnMoves(moves, count, doublePush, 2 * forward, pinned, kingSq, false);
+        count = addPawnMoves(moves, count, west & ~promotionRank, forward - 1, pinned, kingSq, false);
+        count = addPawnMoves(moves, count, east & ~promotionRank, forward + 1, pinned, kingSq, false);
+
+        count = addPawnMoves(moves, count, push & promotionRank, forward, pinned, kingSq, true);
+        count = addPawnMoves(moves, count, west & promotionRank, forward - 1, pinned, kingSq, true);
+        count = addPawnMoves(moves, count, east & promotionRank, forward + 1, pinned, kingSq, true);
+
+        return addEnPassant(board, pawns, enPassant, us, kingSq, moves, count);
+    }
+
+    /** Pawn pushes that do not promote: the complement of {@link #generatePawnCaptures}. */
+    public static int generatePawnQuiets(Bitboard board, long empty, int us,
+                                         long targets, long pinned, int kingSq, int[] moves, int count) {
+        long pawns = board.pieces[us][PAWN];
+        int forward = Pawn.forward(us);
+
+        long push = Pawn.pushForward(pawns, us) & empty;
+        long doublePush = Pawn.pushForward(push, us) & empty & Pawn.DOUBLE_STEP_RANK[us] & targets;
+        push &= targets & ~Pawn.PROMOTION_RANK[us];
+
+        count = addPawnMoves(moves, count, push, forward, pinned, kingSq, false);
+        return addPawnMoves(moves, count, doublePush, 2 * forward, pinned, kingSq, false);
     }
 
-    public static List<Move> generateKnightMoves(Bitboard board, long allies, boolean isWhiteToMove) {
-        List<Move> knightMoves = new ArrayList<>();
-        long knights = isWhiteToMove ? board.wknights : board.bknights;
+    /** Pawn captures, en passant and every promotion, quiet ones included; the quiescence subset. */
+    public static int generatePawnCaptures(Bitboard board, long enemy, long empty, int enPassant, int us,
+                                           long targets, long pinned, int kingSq, int[] moves, int count) {
+        long pawns = board.pieces[us][PAWN];
+        long promotionRank = Pawn.PROMOTION_RANK[us];
+        int forward = Pawn.forward(us);
+
+        long promotionPush = Pawn.pushForward(pawns, us) & empty & promotionRank & targets;
+        long west = Pawn.attacksWest(pawns, us) & enemy & targets;
+        long east = Pawn.attacksEast(pawns, us) & enemy & targets;
+
+        count = addPawnMoves(moves, count, west & ~promotionRank, forward - 1, pinned, kingSq, false);
+        count = addPawnMoves(moves, count, east & ~promotionRank, forward + 1, pinned, kingSq, false);
+        count = addPawnMoves(moves, count, promotionPush, forward, pinned, kingSq, true);
+        count = addPawnMoves(moves, count, west & promotionRank, forward - 1, pinned, kingSq, true);
+        count = addPawnMoves(moves, count, east & promotionRank, forward + 1, pinned, kingSq, true);
+
+        return addEnPassant(board, pawns, enPassant, us, kingSq, moves, count);
+    }
+
+    private static int addEnPassant(Bitboard board, long pawns, int enPassant, int us, int kingSq,
+                                    int[] moves, int count) {
+        if (enPassant == -1) return count;
+        // The capturers are the squares an enemy pawn on the target square would attack.
+        long capturers = Pawn.getAttacks(us ^ 1, enPassant) & pawns;
+        while (capturers != 0) {
+            int fromSq = Long.numberOfTrailingZeros(capturers);
+            if (isLegalEnPassant(board, fromSq, enPassant, us, kingSq)) {
+                moves[count++] = Move.pack(fromSq, enPassant, Move.EN_PASSANT);
+            }
+            capturers &= capturers - 1;
+        }
+        return count;
+    }
+
+    /** Serialises one pawn target set whose origins are {@code offset} squares behind. */
+    private static int addPawnMoves(int[] moves, int count, long targets, int offset, long pinned, int kingSq,
+                                    boolean promotion) {
+        while (targets != 0) {
+            int toSq = Long.numberOfTrailingZeros(targets);
+            int fromSq = toSq - offset;
+            targets &= targets - 1;
+            if ((pinned & (1L << fromSq)) != 0 && (BitboardUtils.line(kingSq, fromSq) & (1L << toSq)) == 0) {
+                continue;
+            }
+            if (promotion) {
+                count = addPromotions(moves, count, fromSq, toSq);
+            } else {
+                moves[count++] = Move.pack(fromSq, toSq, Move.NORMAL);
+            }
+        }
+        return count;
+    }
+
+    public static int generateKnightMoves(Bitboard board, long allies, int us,
+                                          long targets, long pinned, int[] moves, int count) {
+        // A pinned knight can never stay on the pin line.
+        long knights = board.pieces[us][KNIGHT] & ~pinned;
         while (knights != 0) {
             int fromSq = Long.numberOfTrailingZeros(knights);
-            long temp = Knight.getKnightMoves(fromSq, allies);
+            long temp = Knight.getKnightMoves(fromSq, allies) & targets;
             while (temp != 0) {
-                knightMoves.add(new Move(fromSq, Long.numberOfTrailingZeros(temp)));
+                moves[count++] = Move.pack(fromSq, Long.numberOfTrailingZeros(temp), Move.NORMAL);
                 temp &= temp -1;
             }
             knights &= knights - 1;
         }
-        return knightMoves;
+        return count;
     }
-    public static List<Move> generateBishopMoves(Bitboard board, long allies, long enemy, boolean isWhiteToMove){
-        List<Move> bishopMoves = new ArrayList<>();
-        long bishops = isWhiteToMove ? board.wbishops : board.bbishops;
+    public static int generateBishopMoves(Bitboard board, long allies, long enemy, int us,
+                                          long targets, long pinned, int kingSq, int[] moves, int count) {
+        long bishops = board.pieces[us][BISHOP];
         while (bishops != 0){
             int fromSq = Long.numberOfTrailingZeros(bishops);
-            long temp = Bishop.getBishopMoves(fromSq, allies, enemy);
+            long temp = Bishop.getBishopMoves(fromSq, allies, enemy) & allowedTargets(fromSq, targets, pinned, kingSq);
             while (temp != 0){
-                bishopMoves.add(new Move(fromSq, Long.numberOfTrailingZeros(temp)));
+                moves[count++] = Move.pack(fromSq, Long.numberOfTrailingZeros(temp), Move.NORMAL);
                 temp &= temp -1;
             }
             bishops &= bishops -1;
         }
 
-        return bishopMoves;
+        return count;
     }
-    public static List<Move> generateRookMoves(Bitboard board, long allies, long enemy, boolean isWhiteToMove){
-        List<Move> rookMoves = new ArrayList<>();
-        long rooks = isWhiteToMove ? board.wrooks : board.brooks;
+    public static int generateRookMoves(Bitboard board, long allies, long enemy, int us,
+                                          long targets, long pinned, int kingSq, int[] moves, int count) {
+        long rooks = board.pieces[us][ROOK];
         while (rooks != 0){
             int fromSq = Long.numberOfTrailingZeros(rooks);
-            long temp = Rook.getRookMoves(fromSq, allies, enemy);
+            long temp = Rook.getRookMoves(fromSq, allies, enemy) & allowedTargets(fromSq, targets, pinned, kingSq);
             while (temp != 0){
-                rookMoves.add(new Move(fromSq, Long.numberOfTrailingZeros(temp)));
+                moves[count++] = Move.pack(fromSq, Long.numberOfTrailingZeros(temp), Move.NORMAL);
                 temp &= temp -1;
             }
             rooks &= rooks -1;
         }
 
-        return rookMoves;
+        return count;
     }
-    public static List<Move> generateQueenMoves(Bitboard board, long allies, long enemy, boolean isWhiteToMove){
-        List<Move> queenMoves = new ArrayList<>();
-        long queens = isWhiteToMove ? board.wqueens : board.bqueens;
+    public static int generateQueenMoves(Bitboard board, long allies, long enemy, int us,
+                                          long targets, long pinned, int kingSq, int[] moves, int count) {
+        long queens = board.pieces[us][QUEEN];
         while (queens != 0){
             int fromSq = Long.numberOfTrailingZeros(queens);
-            long temp = Queen.getQueenMoves(fromSq, allies, enemy);
+            long temp = Queen.getQueenMoves(fromSq, allies, enemy) & allowedTargets(fromSq, targets, pinned, kingSq);
             while (temp != 0){
-                queenMoves.add(new Move(fromSq, Long.numberOfTrailingZeros(temp)));
+                moves[count++] = Move.pack(fromSq, Long.numberOfTrailingZeros(temp), Move.NORMAL);
                 temp &= temp -1;
             }
             queens &= queens -1;
         }
 
-        return queenMoves;
+        return count;
     }
 
-    public static List<Move> generateKingMoves(Bitboard board, long allies, long empty, boolean isWhiteToMove, boolean kingCastle, boolean queenCastle){
-        List<Move> kingMoves = new ArrayList<>();
-        long king = isWhiteToMove ? board.wking : board.bking;
-        if (king == 0L) return kingMoves;
+    /** King steps and castling, using {@code danger} (the enemy attack map) so both are always legal. */
+    public static int generateKingMoves(Bitboard board, long allies, long empty, int us,
+                                        boolean kingCastle, boolean queenCastle, long danger, int[] moves, int count){
+        long king = board.pieces[us][KING];
+        if (king == 0L) return count;
         int fromSq = Long.numberOfTrailingZeros(king);
-        long temp = King.getKingMoves(fromSq, allies);
+        long temp = King.getKingMoves(fromSq, allies) & ~danger;
         while (temp != 0){
-            kingMoves.add(new Move(fromSq, Long.numberOfTrailingZeros(temp)));
+            moves[count++] = Move.pack(fromSq, Long.numberOfTrailingZeros(temp), Move.NORMAL);
             temp &= temp -1;
         }
-        if (isAttackedSquare(board, fromSq, !isWhiteToMove)) {
-            return kingMoves;
+        if ((danger & king) != 0) {
+            return count;
         }
-        if (kingCastle) {
-            int sq = isWhiteToMove? 5: 61;
-            int sq2 = isWhiteToMove? 6: 62;
-            boolean f = (((1L << (sq)) & empty) != 0) && !(isAttackedSquare(board, sq, !isWhiteToMove));
-            boolean g = ((1L << (sq2)) & empty) != 0 && !(isAttackedSquare(board, sq2, !isWhiteToMove));
-            if (f && g) {
-                int toSq = isWhiteToMove? 6: 62;
-                kingMoves.add(new Move(fromSq, toSq, MoveType.CASTLING));
-            }
+        if (kingCastle && canCastleKingside(us, empty, danger)) {
+            moves[count++] = Move.pack(fromSq, 6 + 56 * us, Move.CASTLING);
         }
-        if (queenCastle) {
-            int sq = isWhiteToMove? 1: 57;
-            int sq2 = isWhiteToMove? 2: 58;
-            int sq3 = isWhiteToMove? 3: 59;
-            boolean b = ((1L << (sq)) & empty) != 0;
-            boolean c = ((1L << sq2) & empty) != 0 && !(isAttackedSquare(board, sq2, !isWhiteToMove));
-            boolean d = ((1L << sq3) & empty) != 0 && !(isAttackedSquare(board, sq3, !isWhiteToMove));
-
-            if (b && c && d){
-                int toSq = isWhiteToMove ? 2 : 58;
-                kingMoves.add(new Move(fromSq, toSq, MoveType.CASTLING));
-            }
+        if (queenCastle && canCastleQueenside(us, empty, danger)) {
+            moves[count++] = Move.pack(fromSq, 2 + 56 * us, Move.CASTLING);
         }
-        return kingMoves;
+        return count;
     }
-    public static long attackedSquares(Bitboard board, boolean isWhite) {
-        long attacks = 0L;
-        long pawns = isWhite? board.wpawns : board.bpawns;
-        long knights = isWhite ? board.wknights : board.bknights;
-        long bishops = isWhite? board.wbishops : board.bbishops;
-        long rooks = isWhite ? board.wrooks : board.brooks;
-        long queens = isWhite ? board.wqueens : board.bqueens;
-        long king = isWhite ? board.wking : board.bking;
-        long allies = isWhite? board.getWhitePieces(): board.getBlackPieces();
-        long enemies = isWhite? board.getBlackPieces(): board.getWhitePieces();
-        if (isWhite) {
-            attacks |= (pawns << 7) & ~BitboardUtils.FILE_H;
-            attacks |= (pawns << 9) & ~BitboardUtils.FILE_A;
-        } else {
-            attacks |= (pawns >>> 9) & ~BitboardUtils.FILE_H;
-            attacks |= (pawns >>> 7) & ~BitboardUtils.FILE_A;
-        }
-        if (king != 0L) {
-            attacks |= King.getKingAttacks(Long.numberOfTrailingZeros(king));
-        }
-        attacks |= generateKnightAttacks(knights, allies);
-        attacks |= generateBishopAttacks(bishops, allies, enemies);
-        attacks |= generateRookAttacks(rooks, allies, enemies);
-        attacks |= generateQueenAttacks(queens, allies, enemies);
-        return attacks;
+
+    // Castling squares for black are the white ones shifted up seven ranks.
+    private static boolean canCastleKingside(int us, long empty, long danger) {
+        long path = 0x60L << 56 * us;
+        return (path & empty & ~danger) == path;
     }
-    public static boolean isInCheck(Bitboard board, boolean isWhiteMove) {
-        long king = isWhiteMove ? board.wking : board.bking;
-        int square = Long.numberOfTrailingZeros(king);
-        return (isAttackedSquare(board, square, !isWhiteMove));
+
+    private static boolean canCastleQueenside(int us, long empty, long danger) {
+        long path = 0x0EL << 56 * us;
+        long safe = 0x0CL << 56 * us;
+        return (path & empty) == path && (safe & danger) == 0;
     }
-    public static boolean isAttackedSquare(Bitboard bb, int square, boolean isWhite) {
-        long attacks = attackedSquares(bb, isWhite);
-        return ((attacks >>> square) & 1) != 0;
+    /** Every square attacked by one side, defended pieces included. */
+    public static long attackedSquares(Bitboard board, int color) {
+        return attackedSquares(board, color, board.getOccupied());
     }
 
-    public static long generateKnightAttacks(long knight, long allies) {
-        long attacks = 0L;
-        while (knight != 0) {
-            int square = Long.numberOfTrailingZeros(knight);
-            attacks |= Knight.getKnightMoves(square, allies);
-            knight &= knight - 1;
-        }
-        return attacks;
+    /** Whether the king of {@code color} is attacked. */
+    public static boolean isInCheck(Bitboard board, int color) {
+        int square = Long.numberOfTrailingZeros(board.pieces[color][KING]);
+        return isAttackedSquare(board, square, color ^ 1);
     }
-    public static long generateBishopAttacks(long bishops, long allies, long enemies) {
-        long attacks = 0L;
-        while (bishops != 0) {
-            int square = Long.numberOfTrailingZeros(bishops);
-            attacks |= Bishop.getBishopMoves(square, allies, enemies);
-            bishops &= bishops -1;
-        }
-        return attacks;
+
+    /**
+     * Whether the side {@code byColor} attacks {@code square}. Attacks are cast outward from
+     * the square and intersected with each enemy piece set, returning on the first hit.
+     */
+    public static boolean isAttackedSquare(Bitboard bb, int square, int byColor) {
+        long[] attackers = bb.pieces[byColor];
+        // A pawn of byColor attacks square exactly when a pawn of the other colour on square would attack it.
+        if ((Pawn.getAttacks(byColor ^ 1, square) & attackers[PAWN]) != 0) return true;
+        if ((Knight.getKnightAttacks(square) & attackers[KNIGHT]) != 0) return true;
+        if ((King.getKingAttacks(square) & attackers[KING]) != 0) return true;
+        long occupied = bb.getOccupied();
+        long diagonals = attackers[BISHOP] | attackers[QUEEN];
+        if (diagonals != 0 && (Bishop.getBishopAttacks(square, occupied) & diagonals) != 0) return true;
+        long straights = attackers[ROOK] | attackers[QUEEN];
+        return straights != 0 && (Rook.getRookAttacks(square, occupied) & straights) != 0;
     }
 
-    public static long generateRookAttacks(long rooks, long allies, long enemies) {
-        long attacks = 0L;
-        while (rooks != 0) {
-            int square = Long.numberOfTrailingZeros(rooks);
-            attacks |= Rook.getRookMoves(square, allies, enemies);
-            rooks &= rooks -1;
-        }
-        return attacks;
+    /**
+     * Every piece of either colour that attacks {@code square} with the given occupancy.
+     * Passing an occupancy with pieces removed lets sliders x-ray through them, which is
+     * what legality checks and static exchange evaluation need.
+     */
+    public static long attackersTo(Bitboard board, int square, long occupied) {
+        long diagonals = board.getPieces(BISHOP) | board.getPieces(QUEEN);
+        long straights = board.getPieces(ROOK) | board.getPieces(QUEEN);
+        return (Pawn.getAttacks(WHITE, square) & board.pieces[BLACK][PAWN])
+                | (Pawn.getAttacks(BLACK, square) & board.pieces[WHITE][PAWN])
+                | (Knight.getKnightAttacks(square) & board.getPieces(KNIGHT))
+                | (King.getKingAttacks(square) & board.getPieces(KING))
+                | (Bishop.getBishopAttacks(square, occupied) & diagonals)
+                | (Rook.getRookAttacks(square, occupied) & straights);
+    }
+
+    private static int addPromotions(int[] moves, int count, int fromSq, int toSq) {
+        moves[count++] = Move.packPromotion(fromSq, toSq, 3);
+        moves[count++] = Move.packPromotion(fromSq, toSq, 2);
+        moves[count++] = Move.packPromotion(fromSq, toSq, 1);
+        moves[count++] = Move.packPromotion(fromSq, toSq, 0);
+        return count;
     }
-    public static long generateQueenAttacks(long queens, long allies, long enemies) {
-        return generateBishopAttacks(queens, allies, enemies) | generateRookAttacks(queens, allies, enemies);
+
+    /**
+     * Writes the legal captures, en-passant captures and promotions into {@code moves}.
+     * Same check and pin logic as {@link #generateLegalMoves(GameState, int[])}, but every
+     * piece's destinations are intersected with the enemy pieces up front, so quiet moves
+     * are never produced and nothing needs to be played to test legality.
+     */
+    public static int generateCaptures(GameState gamestate, int[] moves) {
+        int us = gamestate.sideToMove();
+        int them = us ^ 1;
+        Bitboard board = gamestate.getBoard();
+        long allies = board.colors[us];
+        long enemy = board.colors[them];
+        long occupied = allies | enemy;
+        long king = board.pieces[us][KING];
+        int kingSq = Long.numberOfTrailingZeros(king);
+
+        long checkers = attackersTo(board, kingSq, occupied) & enemy;
+        long danger = attackedSquares(board, them, occupied ^ king);
+
+        int count = 0;
+        long kingCaptures = King.getKingMoves(kingSq, allies) & enemy & ~danger;
+        while (kingCaptures != 0) {
+            moves[count++] = Move.pack(kingSq, Long.numberOfTrailingZeros(kingCaptures), Move.NORMAL);
+            kingCaptures &= kingCaptures - 1;
+        }
+        if ((checkers & (checkers - 1)) != 0) {
+            return count;
+        }
+
+        long targets = checkers == 0 ? -1L
+                : checkers | BitboardUtils.between(kingSq, Long.numberOfTrailingZeros(checkers));
+        long pinned = pinnedPieces(board, kingSq, allies, enemy, us);
+        long captureTargets = targets & enemy;
+
+        count = generatePawnCaptures(board, enemy, ~occupied, gamestate.getEnPassant(), us, targets, pinned, kingSq, moves, count);
+        count = generateKnightMoves(board, allies, us, captureTargets, pinned, moves, count);
+        count = generateBishopMoves(board, allies, enemy, us, captureTargets, pinned, kingSq, moves, count);
+        count = generateRookMoves(board, allies, enemy, us, captureTargets, pinned, kingSq, moves, count);
+        count = generateQueenMoves(board, allies, enemy, us, captureTargets, pinned, kingSq, moves, count);
+        return count;
     }
-    private static void addPromotions(List<Move> moves, int fromSq, int toSq) {
-        moves.add(new Move(fromSq, toSq, 'q'));
-        moves.add(new Move(fromSq, toSq, 'r'));
-        moves.add(new Move(fromSq, toSq, 'b'));
-        moves.add(new Move(fromSq, toSq, 'n'));
+
+
+    /**
+     * Writes the legal moves that {@link #generateCaptures(GameState, int[])} leaves out:
+     * non-capturing, non-promoting moves including castling. Together the two produce
+     * exactly the moves of {@link #generateLegalMoves(GameState, int[])}.
+     */
+    public static int generateQuiets(GameState gamestate, int[] moves) {
+        int us = gamestate.sideToMove();
+        int them = us ^ 1;
+        Bitboard board = gamestate.getBoard();
+        long allies = board.colors[us];
+        long enemy = board.colors[them];
+        long occupied = allies | enemy;
+        long empty = ~occupied;
+        long king = board.pieces[us][KING];
+        int kingSq = Long.numberOfTrailingZeros(king);
+
+        long checkers = attackersTo(board, kingSq, occupied) & enemy;
+        long danger = attackedSquares(board, them, occupied ^ king);
+        boolean castleKing = checkers == 0 && gamestate.canCastleKingside(us);
+        boolean castleQueen = checkers == 0 && gamestate.canCastleQueenside(us);
+
+        // Every occupied square counts as blocked for the king, leaving its quiet steps.
+        int count = generateKingMoves(board, occupied, empty, us, castleKing, castleQueen, danger, moves, 0);
+        if ((checkers & (checkers - 1)) != 0) {
+            return count;
+        }
+
+        long targets = checkers == 0 ? -1L
+                : checkers | BitboardUtils.between(kingSq, Long.numberOfTrailingZeros(checkers));
+        long pinned = pinnedPieces(board, kingSq, allies, enemy, us);
+        long quietTargets = targets & empty;
+
+        count = generatePawnQuiets(board, empty, us, targets, pinned, kingSq, moves, count);
+        count = generateKnightMoves(board, allies, us, quietTargets, pinned, moves, count);
+        count = generateBishopMoves(board, allies, enemy, us, quietTargets, pinned, kingSq, moves, count);
+        count = generateRookMoves(board, allies, enemy, us, quietTargets, pinned, kingSq, moves, count);
+        count = generateQueenMoves(board, allies, enemy, us, quietTargets, pinned, kingSq, moves, count);
+        return count;
     }
 
-    public static List<Move> generateCaptures(GameState gameState) {
-        List<Move> captures = new ArrayList<>();
-        List<Move> pseudoMoves = generateMoves(gameState);
-        for (Move m : pseudoMoves) {
-            char target = gameState.board.getPieceAt(m.getToSquare());
-            if (target != ' ' || m.getMoveType() == MoveType.EN_PASSANT || m.getMoveType().name().startsWith("PROMOTION")) {
-                Delta delta = gameState.deltaMove(m);
-                if (!gameState.isInCheck()) {
-                    captures.add(m);
-                }
-                gameState.unmakeMove(delta);
+    /**
+     * Whether a move from outside the generator (a hash move, a killer) is legal in this
+     * position. Checks the piece, its geometry and the flag, then applies the same check
+     * and pin masks as the generator, so nothing is generated or played.
+     */
+    public static boolean isLegal(GameState gamestate, int move) {
+        int us = gamestate.sideToMove();
+        int them = us ^ 1;
+        Bitboard board = gamestate.getBoard();
+        int fromSq = Move.from(move);
+        int toSq = Move.to(move);
+        int flag = Move.flag(move);
+        long to = 1L << toSq;
+        int piece = board.getPieceAt(fromSq);
+        long allies = board.colors[us];
+        if (piece == NONE || Piece.color(piece) != us || (allies & to) != 0) return false;
+
+        long enemy = board.colors[them];
+        long occupied = allies | enemy;
+        long king = board.pieces[us][KING];
+        int kingSq = Long.numberOfTrailingZeros(king);
+        int type = Piece.type(piece);
+
+        if (type == KING) {
+            long danger = attackedSquares(board, them, occupied ^ king);
+            if (flag == Move.NORMAL) {
+                return (King.getKingAttacks(fromSq) & to & ~danger) != 0;
+            }
+            if (flag != Move.CASTLING || (danger & king) != 0) return false;
+            if (toSq == 6 + 56 * us) {
+                return gamestate.canCastleKingside(us) && canCastleKingside(us, ~occupied, danger);
             }
+            return toSq == 2 + 56 * us
+                    && gamestate.canCastleQueenside(us) && canCastleQueenside(us, ~occupied, danger);
         }
 
-        return captures;
-    }
+        if (type == PAWN) {
+            if (flag == Move.EN_PASSANT) {
+                return toSq == gamestate.getEnPassant() && (Pawn.getAttacks(us, fromSq) & to) != 0
+                        && isLegalEnPassant(board, fromSq, toSq, us, kingSq);
+            }
+            if (flag == Move.CASTLING || (flag == Move.PROMOTION) != ((Pawn.PROMOTION_RANK[us] & to) != 0)) {
+                return false;
+            }
+            long single = Pawn.getSingleStep(us, fromSq, ~occupied);
+            long reach = single | Pawn.getDoubleStep(us, fromSq, ~occupied) | (Pawn.getAttacks(us, fromSq) & enemy);
+            if ((reach & to) == 0) return false;
+        } else {
+            if (flag != Move.NORMAL) return false;
+            long reach = switch (type) {
+                case KNIGHT -> Knight.getKnightAttacks(fromSq);
+                case BISHOP -> Bishop.getBishopAttacks(fromSq, occupied);
+                case ROOK -> Rook.getRookAttacks(fromSq, occupied);
+                default -> Queen.getQueenAttacks(fromSq, occupied);
+            };
+            if ((reach & to) == 0) return false;
+        }
 
-}
\ No newline at end of file
+        long checkers = attackersTo(board, kingSq, occupied) & enemy;
+        if ((checkers & (checkers - 1)) != 0) return false;
+        long targets = checkers == 0 ? -1L
+                : checkers | BitboardUtils.between(kingSq, Long.numberOfTrailingZeros(checkers));
+        long pinned = pinnedPieces(board, kingSq, allies, enemy, us);
+        return (allowedTargets(fromSq, targets, pinned, kingSq) & to) != 0;
+    }
+}
@@ -0,0 +1,188 @@
+package movegeneration;
+
+import engine.Move;
+import game.GameState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the legal move tree, to check the move generator against known
+ * totals and to measure its speed. Leaves are bulk counted (the move count at depth 1 is
+ * the node count), root moves are split across the common fork-join pool, and an optional
+ * hash table caches subtree counts by position.
+ *
+ * <p>Run standalone with no arguments to check the reference positions, or with
+ * {@code <depth> [fen]} to count a single position.
+ */
+public class Perft {
+    public record Position(String name, String fen, int depth, long nodes) {
+    }
+
+    /** Standard test positions with their published node counts. */
+    public static final Position[] REFERENCE_POSITIONS = {
+            new Position("startpos", "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", 5, 4865609L),
+            new Position("kiwipete", "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", 4, 4085603L),
+            new Position("position 3", "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", 6, 11030083L),
+            new Position("position 4", "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", 4, 422333L),
+            new Position("position 4 mirrored", "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1", 4, 422333L),
+            new Position("position 5", "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", 4, 2103487L),
+            new Position("position 6", "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10", 4, 3894594L),
+    };
+
+    /** Per-root-move counts of one run. */
+    public record Result(int[] moves, long[] nodes, long total, long timeMs) {
+        public long nps() {
+            return total * 1000 / Math.max(1, timeMs);
+        }
+    }
+
+    /** Hash size for the reference run that checks the cached path. */
+    public static final int REFERENCE_HASH_MB = 64;
+
+    // At most 2^29 entries (8 GB), so the 2 * entries array length still fits in an int.
+    private static final int MAX_ENTRIES = 1 << 29;
+
+    // Pairs of (key ^ data, data) with data = nodes << 8 | depth, written without locks like the search table.
+    private final long[] table;
+    private final int indexMask;
+
+    public Perft() {
+        this(0);
+    }
+
+    /** @param hashSizeMb size of the subtree-count cache, or 0 for none */
+    public Perft(int hashSizeMb) {
+        if (hashSizeMb <= 0) {
+            table = null;
+            indexMask = 0;
+            return;
+        }
+        int entries = Integer.highestOneBit((int) Math.min(MAX_ENTRIES, hashSizeMb * (1L << 20) / 16));
+        table = new long[entries * 2];
+        indexMask = entries - 1;
+    }
+
+    public long perft(GameState state, int depth) {
+        return divide(state, depth).total();
+    }
+
+    /** Counts each root move's subtree in parallel; {@code state} itself is left untouched. */
+    public Result divide(GameState state, int depth) {
+        long start = System.currentTimeMillis();
+        int[] rootMoves = new int[MoveGenerator.MAX_MOVES];
+        int count = depth > 0 ? MoveGenerator.generateLegalMoves(state, rootMoves) : 0;
+
+        List<RecursiveTask<Long>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            GameState child = new GameState(state);
+            child.makeMove(rootMoves[i]);
+            tasks.add(new SubtreeTask(child, depth - 1));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        long[] nodes = new long[count];
+        long total = depth > 0 ? 0 : 1;
+        for (int i = 0; i < count; i++) {
+            nodes[i] = tasks.get(i).join();
+            total += nodes[i];
+        }
+        int[] moves = new int[count];
+        System.arraycopy(rootMoves, 0, moves, 0, count);
+        return new Result(moves, nodes, total, System.currentTimeMillis() - start);
+    }
+
+    @SuppressWarnings("serial")
+    private final class SubtreeTask extends RecursiveTask<Long> {
+        private final GameState state;
+        private final int depth;
+
+        SubtreeTask(GameState state, int depth) {
+            this.state = state;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            if (depth == 0) return 1L;
+            return count(state, depth, new int[depth + 1][MoveGenerator.MAX_MOVES]);
+        }
+    }
+
+    private long count(GameState state, int depth, int[][] buffers) {
+        int[] moves = buffers[depth];
+        if (depth == 1) {
+            return MoveGenerator.generateLegalMoves(state, moves);
+        }
+        long key = state.getHash();
+        int index = ((int) key & indexMask) * 2;
+        if (table != null) {
+            long data = table[index + 1];
+            if ((table[index] ^ data) == key && (data & 0xFF) == depth) {
+                return data >>> 8;
+            }
+        }
+
+        int count = MoveGenerator.generateLegalMoves(state, moves);
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            state.makeMove(moves[i]);
+            nodes += count(state, depth - 1, buffers);
+            state.unmakeMove(moves[i]);
+        }
+
+        if (table != null) {
+            long data = nodes << 8 | depth;
+            table[index] = key ^ data;
+            table[index + 1] = data;
+        }
+        return nodes;
+    }
+
+    /** Prints one line per root move followed by the totals, in the usual divide format. */
+    public static void printDivide(Result result) {
+        for (int i = 0; i < result.moves().length; i++) {
+            System.out.println(Move.toUCI(result.moves()[i]) + ": " + result.nodes()[i]);
+        }
+        System.out.println();
+        printTotals(result);
+    }
+
+    public static void printTotals(Result result) {
+        System.out.println("Nodes: " + result.total() + " Time: " + result.timeMs() + " ms NPS: " + result.nps());
+    }
+
+    /**
+     * Runs every reference position with this instance's hash setting and reports whether
+     * the counts match; returns true if all do.
+     */
+    public boolean runReferencePositions() {
+        boolean allPassed = true;
+        for (Position position : REFERENCE_POSITIONS) {
+            Result result = divide(GameState.fromFEN(position.fen()), position.depth());
+            boolean passed = result.total() == position.nodes();
+            allPassed &= passed;
+            System.out.println((passed ? "ok   " : "FAIL ") + position.name() + " depth " + position.depth()
+                    + " expected " + position.nodes() + " got " + result.total()
+                    + " (" + result.timeMs() + " ms, " + result.nps() + " nps)");
+        }
+        return allPassed;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            // Once without and once with the hash, so a key or depth-packing bug in the cache shows up too.
+            boolean passed = new Perft().runReferencePositions();
+            System.out.println("with " + REFERENCE_HASH_MB + " MB hash:");
+            passed &= new Perft(REFERENCE_HASH_MB).runReferencePositions();
+            System.exit(passed ? 0 : 1);
+        }
+        int depth = Integer.parseInt(args[0]);
+        GameState state = args.length > 1
+                ? GameState.fromFEN(String.join(" ", List.of(args).subList(1, args.length)))
+                : new GameState();
+        printDivide(new Perft().divide(state, depth));
+    }
+}
@@ -0,0 +1,96 @@
+package movegeneration;
+
+import board.Bitboard;
+import engine.Move;
+import evaluation.Evaluation;
+import pieces.Bishop;
+import pieces.Rook;
+
+import static board.Piece.*;
+
+/**
+ * Static exchange evaluation: the material outcome of the capture sequence a move starts on
+ * its destination square, each side recapturing with its least valuable attacker and free
+ * to stop when continuing would lose. Attackers are recomputed with {@link
+ * MoveGenerator#attackersTo} as pieces leave the board, so sliders lined up behind each
+ * other (x-rays) join in. Pins and checks are ignored, as usual.
+ * <p>
+ * An instance holds the swap list, so each search thread keeps its own and nothing is
+ * allocated per call.
+ */
+public final class StaticExchange {
+    // Each capture takes a piece off the board, so an exchange has fewer than 32 steps.
+    private final int[] gain = new int[32];
+
+    /** Material won by the move itself: the captured piece, plus the promotion's gain over a pawn. */
+    public static int captureGain(Bitboard board, int move) {
+        int flag = Move.flag(move);
+        int gain = 0;
+        if (flag == Move.EN_PASSANT) {
+            gain = Evaluation.pieceValue(PAWN);
+        } else if (flag != Move.CASTLING) {
+            int captured = board.getPieceAt(Move.to(move));
+            if (captured != NONE) gain = Evaluation.pieceValue(type(captured));
+        }
+        if (flag == Move.PROMOTION) {
+            gain += Evaluation.pieceValue(Move.promotionType(move)) - Evaluation.pieceValue(PAWN);
+        }
+        return gain;
+    }
+
+    /** Centipawns the side to move can expect to gain from {@code move}, negative if it loses material. */
+    public int see(Bitboard board, int move) {
+        if (Move.flag(move) == Move.CASTLING) return 0;
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int us = color(board.getPieceAt(from));
+
+        // Swap list: gain[d] is what the side making capture d has won if the exchange stops there.
+        gain[0] = captureGain(board, move);
+        int onSquare = Move.flag(move) == Move.PROMOTION ? Move.promotionType(move) : type(board.getPieceAt(from));
+
+        long occupied = board.getOccupied() ^ (1L << from);
+        if (Move.flag(move) == Move.EN_PASSANT) occupied ^= 1L << (to - 8 + 16 * us);
+        long diagonals = board.getPieces(BISHOP) | board.getPieces(QUEEN);
+        long straights = board.getPieces(ROOK) | board.getPieces(QUEEN);
+        long attackers = MoveGenerator.attackersTo(board, to, occupied) & occupied;
+
+        int side = us ^ 1;
+        int d = 0;
+        while (true) {
+            // Speculative: what side would have if it took the piece on the square.
+            d++;
+            gain[d] = Evaluation.pieceValue(onSquare) - gain[d - 1];
+            // Neither standing pat nor recapturing can change the sign of the result any more.
+            if (Math.max(-gain[d - 1], gain[d]) < 0) break;
+
+            long ours = attackers & board.colors[side];
+            if (ours == 0) break;
+            int type = PAWN;
+            long attacker = 0;
+            for (; type <= KING; type++) {
+                attacker = ours & board.pieces[side][type];
+                if (attacker != 0) break;
+            }
+            // The king may only take last: with enemy attackers left it would be capturing into check.
+            if (type == KING && (attackers & board.colors[side ^ 1]) != 0) break;
+
+            occupied ^= Long.lowestOneBit(attacker);
+            if (type == PAWN || type == BISHOP || type >= QUEEN) {
+                attackers |= Bishop.getBishopAttacks(to, occupied) & diagonals;
+            }
+            if (type >= ROOK) {
+                attackers |= Rook.getRookAttacks(to, occupied) & straights;
+            }
+            attackers &= occupied;
+            onSquare = type;
+            side ^= 1;
+        }
+
+        // The last entry is the speculative one nobody could make; fold the rest back to the root.
+        while (--d > 0) {
+            gain[d - 1] = -Math.max(-gain[d - 1], gain[d]);
+        }
+        return gain[0];
+    }
+}
@@ -1,34 +1,38 @@
 package pieces;
 
 public class Bishop {
-    public static long getBishopMoves(int square, long allies, long enemies) {
-        long moves = 0L;
+    private static final long[] MASKS = new long[64];
+    private static final long[] MAGICS = {
+            0x3040010400808102L, 0x010208820C00400CL, 0x20C4281081042820L, 0x0009040104408000L,
+            0x04A404200082210CL, 0x0801012090C00420L, 0x1002011008060802L, 0x9000820090010820L,
+            0x80831005100C2041L, 0x2008100208010028L, 0x0020080820408204L, 0x0000110400850202L,
+            0x1000140D20120106L, 0x0002008804C11800L, 0x2A000A0222924000L, 0x0000344402011000L,
+            0x6040009010025081L, 0x0270000204180092L, 0x0010000980848100L, 0x0104001804111000L,
+            0x9004024822080805L, 0x0012000101010100L, 0x80004008A8080800L, 0x0002080101014100L,
+            0x4044C00010100101L, 0x4002114828290801L, 0x0118901082040010L, 0x240408010C020408L,
+            0x2840840102802002L, 0x0002120020889000L, 0x0018841009012840L, 0x20904080024C2402L,
+            0x02302A3020220400L, 0x08041C2002020A00L, 0x0400124804840800L, 0x4882004040840100L,
+            0x2540004010010100L, 0x0020040110108800L, 0x0008420040040100L, 0x0041140089B10060L,
+            0x0001100310826000L, 0x0000809008009085L, 0x8801424020801000L, 0x0031002011100800L,
+            0x1000401009010088L, 0x0421100102000840L, 0x8090014204040880L, 0x9010442880800022L,
+            0x0882080104102024L, 0x0088308404204000L, 0x0009491401040102L, 0x0921204C4608040DL,
+            0x0000001042020500L, 0x8010462014010084L, 0x0140100101110408L, 0x0008010802124410L,
+            0x0508828050222000L, 0x440C810405046280L, 0x7205C01044041C00L, 0x800C400000842404L,
+            0x008A000012020208L, 0x0000031002D00100L, 0x0182C1A8080080A0L, 0x0010011A14040020L
+    };
+    private static final int[] SHIFTS = new int[64];
+    private static final int[] OFFSETS = new int[64];
+    private static final long[] ATTACKS =
+            Magic.init(Magic.BISHOP_DIRECTIONS, MASKS, MAGICS, SHIFTS, OFFSETS);
 
-        for (int r = square - 9; r >= 0 && r % 8 != 7; r -= 9) {
-            long target = 1L << r;
-            if ((target & allies) != 0) break;
-            moves |= target;
-            if ((target & enemies) != 0) break;
-        }
-        for (int r = square + 9; r <= 63 && r % 8 != 0; r += 9) {
-            long target = 1L << r;
-            if ((target & allies) != 0) break;
-            moves |= target;
-            if ((target & enemies) != 0) break;
-        }
-        for (int r = square - 7; r >= 0 && r % 8 != 0; r -= 7) {
-            long target = 1L << r;
-            if ((target & allies) != 0) break;
-            moves |= target;
-            if ((target & enemies) != 0) break;
+    public static long getBishopAttacks(int square, long occupied) {
+        if (Magic.USE_PEXT) {
+            return ATTACKS[OFFSETS[square] + (int) Magic.compress(occupied, MASKS[square])];
         }
+        return ATTACKS[OFFSETS[square] + (int) (((occupied & MASKS[square]) * MAGICS[square]) >>> SHIFTS[square])];
+    }
 
-        for (int r = square + 7; r <= 63 && r % 8 != 7; r += 7) {
-            long target = 1L << r;
-            if ((target & allies) != 0) break;
-            moves |= target;
-            if ((target & enemies) != 0) break;
-        }
-        return moves;
+    public static long getBishopMoves(int square, long allies, long enemies) {
+        return getBishopAttacks(square, allies | enemies) & ~allies;
     }
 }
@@ -6,7 +6,7 @@ public class Knight {
         for (int square = 0; square < 64; square++){
             long bitboard = 1L << square;
             long moves = 0L;
-            if (square % 8 > 0 && square > 15) moves |= bitboard >> 17;
+            if (square % 8 > 0 && square > 15) moves |= bitboard >>> 17;
             if (square % 8 > 1 && square > 7) moves |= bitboard >>> 10;
             if (square % 8 > 1 && square < 56) moves |= bitboard << 6;
             if (square % 8 > 0 && square < 48) moves |= bitboard << 15;
@@ -20,5 +20,8 @@ public class Knight {
     public static long getKnightMoves(int square, long allies) {
         return knightMoves[square] & ~allies;
     }
+    public static long getKnightAttacks(int square) {
+        return knightMoves[square];
+    }
 
 }
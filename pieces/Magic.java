@@ -0,0 +1,155 @@
+package pieces;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Builds the sliding-piece lookup tables used by {@link Rook} and {@link Bishop}.
+ * Each square gets a relevant-occupancy mask and a slice of one flat attack table,
+ * so a lookup is a single multiply-shift-index (or a {@code Long.compress} with the
+ * PEXT variant, enabled with {@code -Dlightshep.pext=true}).
+ * <p>
+ * {@code Long.compress} only exists from JDK 19, so it is looked up reflectively and the
+ * tree still compiles on JDK 17; where it is missing the flag is ignored with a warning.
+ */
+final class Magic {
+    // Long.compress(long, long), or null on a JDK without it. A constant handle, so the JIT inlines the call.
+    private static final MethodHandle COMPRESS = findCompress();
+    static final boolean USE_PEXT = Boolean.getBoolean("lightshep.pext") && COMPRESS != null;
+
+    static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    private Magic() {
+    }
+
+    /** {@code Long.compress(value, mask)}; only called when {@link #USE_PEXT} is set. */
+    static long compress(long value, long mask) {
+        try {
+            return (long) COMPRESS.invokeExact(value, mask);
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static MethodHandle findCompress() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Long.class, "compress",
+                    MethodType.methodType(long.class, long.class, long.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            if (Boolean.getBoolean("lightshep.pext")) {
+                System.err.println("lightshep.pext needs JDK 19 or newer; using magic multiplication");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Fills the per-square masks, shifts and offsets and returns the attack table.
+     * The precomputed magics are verified against every occupancy subset; if one
+     * ever collides, a replacement is searched for with a fixed seed.
+     */
+    static long[] init(int[][] directions, long[] masks, long[] magics, int[] shifts, int[] offsets) {
+        int total = 0;
+        for (int square = 0; square < 64; square++) {
+            masks[square] = relevantMask(square, directions);
+            shifts[square] = 64 - Long.bitCount(masks[square]);
+            offsets[square] = total;
+            total += 1 << Long.bitCount(masks[square]);
+        }
+
+        long[] attacks = new long[total];
+        long[] occupancies = new long[4096];
+        long[] reference = new long[4096];
+        long[] used = new long[4096];
+        int[] epoch = new int[4096];
+        Random rng = new Random(123456789);
+
+        for (int square = 0; square < 64; square++) {
+            long mask = masks[square];
+            int size = 0;
+            long subset = 0L;
+            do {
+                occupancies[size] = subset;
+                reference[size] = slowAttacks(square, subset, directions);
+                size++;
+                subset = (subset - mask) & mask;
+            } while (subset != 0);
+
+            if (USE_PEXT) {
+                for (int i = 0; i < size; i++) {
+                    attacks[offsets[square] + (int) compress(occupancies[i], mask)] = reference[i];
+                }
+                continue;
+            }
+
+            Arrays.fill(epoch, 0);
+            int attempt = 1;
+            while (!isValid(magics[square], shifts[square], occupancies, reference, size, used, epoch, attempt)) {
+                long magic;
+                do {
+                    magic = rng.nextLong() & rng.nextLong() & rng.nextLong();
+                } while (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6);
+                magics[square] = magic;
+                attempt++;
+            }
+            for (int i = 0; i < size; i++) {
+                attacks[offsets[square] + (int) ((occupancies[i] * magics[square]) >>> shifts[square])] = reference[i];
+            }
+        }
+        return attacks;
+    }
+
+    private static boolean isValid(long magic, int shift, long[] occupancies, long[] reference, int size,
+                                   long[] used, int[] epoch, int attempt) {
+        if (magic == 0L) return false;
+        for (int i = 0; i < size; i++) {
+            int index = (int) ((occupancies[i] * magic) >>> shift);
+            if (epoch[index] != attempt) {
+                epoch[index] = attempt;
+                used[index] = reference[i];
+            } else if (used[index] != reference[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long relevantMask(int square, int[][] directions) {
+        long mask = 0L;
+        int rank = square / 8;
+        int file = square % 8;
+        for (int[] d : directions) {
+            int f = file + d[0];
+            int r = rank + d[1];
+            // The last square of a ray never blocks anything behind it, so it is left out.
+            while (f + d[0] >= 0 && f + d[0] <= 7 && r + d[1] >= 0 && r + d[1] <= 7) {
+                mask |= 1L << (r * 8 + f);
+                f += d[0];
+                r += d[1];
+            }
+        }
+        return mask;
+    }
+
+    private static long slowAttacks(int square, long occupied, int[][] directions) {
+        long attacks = 0L;
+        int rank = square / 8;
+        int file = square % 8;
+        for (int[] d : directions) {
+            int f = file + d[0];
+            int r = rank + d[1];
+            while (f >= 0 && f <= 7 && r >= 0 && r <= 7) {
+                long target = 1L << (r * 8 + f);
+                attacks |= target;
+                if ((target & occupied) != 0) break;
+                f += d[0];
+                r += d[1];
+            }
+        }
+        return attacks;
+    }
+}
@@ -3,47 +3,58 @@ package pieces;
 import utils.BitboardUtils;
 
 public class Pawn {
-    public static long getWhiteSingleStep(int square, long empty) {
-        long bitboard = 1L << square;
-        return (bitboard << 8) & empty;
+    // Indexed by colour (0 = white, 1 = black) so both sides share one code path.
+    public static final long[] DOUBLE_STEP_RANK = {BitboardUtils.RANK_4, BitboardUtils.RANK_5};
+    public static final long[] PROMOTION_RANK = {BitboardUtils.RANK_8, BitboardUtils.RANK_1};
+
+    private static final long[][] ATTACKS = new long[2][64];
+
+    static {
+        // Plain shifts here: the table covers every square, including ones a rotate would wrap from.
+        for (int square = 0; square < 64; square++) {
+            long west = (1L << square) & ~BitboardUtils.FILE_A;
+            long east = (1L << square) & ~BitboardUtils.FILE_H;
+            ATTACKS[0][square] = (west << 7) | (east << 9);
+            ATTACKS[1][square] = (west >>> 9) | (east >>> 7);
+        }
+    }
+
+    /** Square offset of a single push: +8 for white, -8 for black. Captures are one less (west) or more (east). */
+    public static int forward(int color) {
+        return 8 - 16 * color;
     }
 
-    public static long getWhiteDoubleStep(int square, long empty) {
-        long bitboard = 1L << square;
-        long single = (bitboard << 8) & empty;
-        //BitboardUtils.printBitboard((single << 8) & empty & BitboardUtils.RANK_4);
-        return (single << 8) & empty & BitboardUtils.RANK_4;
+    /*
+     * Set-wise shifts. A rotate handles both directions in one expression; nothing wraps
+     * because pawns never stand on their own back rank or on the promotion rank.
+     */
+    public static long pushForward(long pawns, int color) {
+        return Long.rotateLeft(pawns, forward(color));
     }
 
-    public static long getWhiteLeftAttack(int square, long enemy) {
-        long bitboard = 1L << square;
-        return (bitboard & ~BitboardUtils.FILE_A) << 7 & enemy;
+    public static long attacksWest(long pawns, int color) {
+        return Long.rotateLeft(pawns & ~BitboardUtils.FILE_A, forward(color) - 1);
     }
 
-    public static long getWhiteRightAttack(int square, long enemy) {
-        long bitboard = 1L << square;
-        return (bitboard & ~BitboardUtils.FILE_H) << 9 & enemy;
+    public static long attacksEast(long pawns, int color) {
+        return Long.rotateLeft(pawns & ~BitboardUtils.FILE_H, forward(color) + 1);
     }
 
-    public static long getBlackSingleStep(int square, long empty) {
-        long bitboard = 1L << square;
-        return (bitboard >>> 8) & empty;
+    public static long getSingleStep(int color, int square, long empty) {
+        return pushForward(1L << square, color) & empty;
     }
 
-    public static long getBlackDoubleStep(int square, long empty) {
-        long bitboard = 1L << square;
-        long single = (bitboard >>> 8) & empty;
-        return (single >>> 8) & empty & BitboardUtils.RANK_5;
+    public static long getDoubleStep(int color, int square, long empty) {
+        return pushForward(getSingleStep(color, square, empty), color) & empty & DOUBLE_STEP_RANK[color];
     }
 
-    public static long getBlackLeftAttack(int square, long enemy ) {
-        long bitboard = 1L << square;
-        return (bitboard & ~BitboardUtils.FILE_A) >>> 9 & enemy;
+    public static long getAttacks(int color, int square) {
+        return ATTACKS[color][square];
     }
 
-    public static long getBlackRightAttack(int square, long enemy) {
-        long bitboard = 1L << square;
-        return (bitboard & ~BitboardUtils.FILE_H) >>> 7 & enemy;
+    /** Every square attacked by a set of pawns of one colour. */
+    public static long getAttacksFrom(long pawns, int color) {
+        return attacksWest(pawns, color) | attacksEast(pawns, color);
     }
 
-}
\ No newline at end of file
+}
@@ -1,8 +1,11 @@
 package pieces;
 
 public class Queen {
+    public static long getQueenAttacks(int square, long occupied) {
+        return Rook.getRookAttacks(square, occupied) | Bishop.getBishopAttacks(square, occupied);
+    }
+
     public static long getQueenMoves(int square, long allies, long enemies) {
-        return Rook.getRookMoves(square, allies, enemies) | Bishop.getBishopMoves(square, allies, enemies);
+        return getQueenAttacks(square, allies | enemies) & ~allies;
     }
 }
-
@@ -1,36 +1,38 @@
 package pieces;
 
 public class Rook {
-    public static long getRookMoves(int square, long allies, long enemies) {
-        long moves = 0L;
-        int file = square % 8;
-        for (int r = square - 1; r >= square - file; r--) {
-            long target = 1L << r;
-            if ((target & allies) != 0) break;
-            moves |= target;
-            if ((target & enemies) != 0) break;
-        }
-
-        for (int r = square + 1; r <= square - file + 7; r++) {
-            long target = 1L << r;
-            if ((target & allies) != 0) break;
-            moves |= target;
-            if ((target & enemies) != 0) break;
-        }
+    private static final long[] MASKS = new long[64];
+    private static final long[] MAGICS = {
+            0x0080008420144000L, 0x0140001000402000L, 0x8100200100081040L, 0x0580100181040800L,
+            0x0480040002480180L, 0x020002001004C108L, 0x06002600180104ACL, 0x0A00010200804024L,
+            0x1102800320814002L, 0xC000808040002000L, 0x0202802000821000L, 0x4210800800801000L,
+            0x8008808044004800L, 0x0006002418100200L, 0x0A00800200010080L, 0x0202000208804114L,
+            0x2010208000400080L, 0x1080484004201000L, 0x1062060020408410L, 0x4810010009001024L,
+            0x4400808008000401L, 0x9421010002080400L, 0x4208840002100801L, 0x8500020000804104L,
+            0x20A0400080208000L, 0x8840008080402008L, 0x0450200080100080L, 0x00100400C02800C0L,
+            0x0A48000880040080L, 0x1100020080800400L, 0x000A921400900148L, 0x0033004600008904L,
+            0x4202804002800020L, 0x3118804202002504L, 0x0004208842001200L, 0x0014C80084801000L,
+            0x0000080080800400L, 0x0922800400800200L, 0x8442000142008418L, 0x0020800040800100L,
+            0x1400400080008020L, 0x0010002008484002L, 0x0400200010008080L, 0x4028001000088080L,
+            0x4408000400808008L, 0x0129000400090052L, 0x8001001200110004L, 0x4000804084020001L,
+            0x1080002080400080L, 0x6A0B950022004200L, 0x8004401200268200L, 0x0002000820411600L,
+            0x0481480080040280L, 0xC001000802040100L, 0x00D1000C06000300L, 0x0026010084004200L,
+            0x2001C81100208001L, 0x0040002080110041L, 0x00410011A000400DL, 0x2081002208041001L,
+            0x0002000804201002L, 0x5101000A28040029L, 0x0100080112489004L, 0x02000E4400288102L
+    };
+    private static final int[] SHIFTS = new int[64];
+    private static final int[] OFFSETS = new int[64];
+    private static final long[] ATTACKS =
+            Magic.init(Magic.ROOK_DIRECTIONS, MASKS, MAGICS, SHIFTS, OFFSETS);
 
-        for (int f = square + 8; f <= 63; f += 8) {
-            long target = 1L << f;
-            if ((target & allies) != 0) break;
-            moves |= target;
-            if ((target & enemies) != 0) break;
+    public static long getRookAttacks(int square, long occupied) {
+        if (Magic.USE_PEXT) {
+            return ATTACKS[OFFSETS[square] + (int) Magic.compress(occupied, MASKS[square])];
         }
+        return ATTACKS[OFFSETS[square] + (int) (((occupied & MASKS[square]) * MAGICS[square]) >>> SHIFTS[square])];
+    }
 
-        for (int f = square - 8; f >= 0; f -= 8) {
-            long target = 1L << f;
-            if ((target & allies) != 0) break;
-            moves |= target;
-            if ((target & enemies) != 0) break;
-        }
-        return moves;
+    public static long getRookMoves(int square, long allies, long enemies) {
+        return getRookAttacks(square, allies | enemies) & ~allies;
     }
 }
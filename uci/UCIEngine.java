@@ -1,16 +1,21 @@
 //Thank you gemini for this <3
 package uci;
 
+import engine.Bench;
 import engine.Move;
 import engine.Search;
+import engine.SmpSearch;
+import engine.TranspositionTable;
 import game.GameState;
 import board.Bitboard;
 import movegeneration.MoveGenerator;
+import movegeneration.Perft;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -24,7 +29,9 @@ import java.util.concurrent.TimeUnit;
 public class UCIEngine {
 
     private GameState currentGameState;
-    private Search searchEngine;
+    private SmpSearch searchEngine; // Lazy SMP search, rebuilt when Threads or Hash changes
+    private int threads = 1;
+    private TranspositionTable transpositionTable; // Shared between searches so entries survive across moves
     private ExecutorService searchExecutor; // Manages the search thread
     private Future<?> currentSearchTask; // Represents the ongoing search task
 
@@ -36,7 +43,8 @@ public class UCIEngine {
     public UCIEngine() {
         // Initialize with the standard starting game state
         currentGameState = new GameState();
-        searchEngine = new Search();
+        transpositionTable = new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB);
+        searchEngine = new SmpSearch(threads, Search.DEFAULT_TIME_LIMIT, transpositionTable);
         // Use a single-threaded executor to ensure only one search runs at a time
         searchExecutor = Executors.newSingleThreadExecutor();
     }
@@ -44,9 +52,15 @@ public class UCIEngine {
     /**
      * Main method to start the UCI engine.
      * Creates an instance of UCIEngine and calls its run method.
-     * @param args Command line arguments (not used).
+     * @param args Command line arguments: "bench [depth] [threads]" runs the benchmark instead.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            // "bench [depth] [threads]" on the command line runs the benchmark and exits, for scripts and CI
+            Bench.run(args.length > 1 ? Integer.parseInt(args[1]) : Bench.DEFAULT_DEPTH,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 1);
+            return;
+        }
         UCIEngine uciEngine = new UCIEngine();
         uciEngine.run();
     }
@@ -94,8 +108,9 @@ public class UCIEngine {
                 // Respond with engine identification and options
                 System.out.println("id name MyJavaChessEngine");
                 System.out.println("id author YourName"); // Replace with your name
-                // TODO: Add any specific UCI options your engine supports here.
-                // Example: System.out.println("option name Hash type spin default 1 min 1 max 1024");
+                System.out.println("option name Hash type spin default " + TranspositionTable.DEFAULT_SIZE_MB
+                        + " min 1 max " + TranspositionTable.MAX_SIZE_MB);
+                System.out.println("option name Threads type spin default 1 min 1 max " + SmpSearch.MAX_THREADS);
                 System.out.println("uciok"); // Signal that UCI initialization is complete
                 break;
 
@@ -104,13 +119,21 @@ public class UCIEngine {
                 System.out.println("readyok");
                 break;
 
+            case "setoption":
+                // Configure engine options, e.g. "setoption name Hash value 64"
+                handleSetOptionCommand(parts);
+                break;
+
             case "ucinewgame":
                 // Reset the game state for a new game
                 currentGameState = new GameState();
+                transpositionTable.clear(); // Forget positions from the previous game
                 // Cancel any ongoing search from a previous game
                 if (currentSearchTask != null && !currentSearchTask.isDone()) {
+                    searchEngine.stop();
                     currentSearchTask.cancel(true); // Interrupt the search thread
                 }
+                searchEngine.clearHistory(); // Killers and history belong to the old game too
                 break;
 
             case "position":
@@ -124,10 +147,8 @@ public class UCIEngine {
                 break;
 
             case "stop":
-                // Stop the current search immediately
-                if (currentSearchTask != null && !currentSearchTask.isDone()) {
-                    currentSearchTask.cancel(true); // Interrupt the search thread
-                }
+                // Stop the current search immediately; it still reports the best move found so far
+                searchEngine.stop();
                 break;
 
             case "quit":
@@ -139,6 +160,17 @@ public class UCIEngine {
                 System.exit(0); // Terminate the JVM
                 break;
 
+            case "bench":
+                // Custom command: "bench [depth] [threads]" prints a node-count signature and nodes per second
+                handleBenchCommand(parts);
+                break;
+
+            case "perft":
+            case "divide":
+                // Custom debug commands: "perft <depth> [hashMB]" counts leaf nodes, "divide" also lists each root move
+                handlePerftCommand(parts, cmd.equals("divide"));
+                break;
+
             case "d": // Custom debug command: print current board and FEN
                 currentGameState.getBoard().printBoard();
                 System.out.println("FEN: " + currentGameState.toFEN());
@@ -151,6 +183,95 @@ public class UCIEngine {
         }
     }
 
+    /**
+     * Handles the "setoption" UCI command.
+     * Supports "Hash", the transposition table size in megabytes, and "Threads",
+     * the number of Lazy SMP search threads.
+     * @param parts The array of strings representing the command parts.
+     */
+    private void handleSetOptionCommand(String[] parts) {
+        int nameIndex = Arrays.asList(parts).indexOf("name");
+        int valueIndex = Arrays.asList(parts).indexOf("value");
+        if (nameIndex == -1 || valueIndex == -1 || valueIndex <= nameIndex + 1 || valueIndex + 1 >= parts.length) {
+            System.err.println("Invalid setoption command: " + Arrays.toString(parts));
+            return;
+        }
+        // Option names may contain spaces, so join everything between "name" and "value"
+        String name = String.join(" ", Arrays.copyOfRange(parts, nameIndex + 1, valueIndex));
+        String value = parts[valueIndex + 1];
+
+        try {
+            if (name.equalsIgnoreCase("Hash")) {
+                int sizeMb = Integer.parseInt(value);
+                if (sizeMb < 1 || sizeMb > TranspositionTable.MAX_SIZE_MB) {
+                    System.err.println("Hash size out of range: " + sizeMb);
+                    return;
+                }
+                transpositionTable = new TranspositionTable(sizeMb); // Reallocate with the requested size
+                rebuildSearch();
+            } else if (name.equalsIgnoreCase("Threads")) {
+                int count = Integer.parseInt(value);
+                if (count < 1 || count > SmpSearch.MAX_THREADS) {
+                    System.err.println("Thread count out of range: " + count);
+                    return;
+                }
+                threads = count;
+                rebuildSearch();
+            } else {
+                System.out.println("info unknown option: " + name);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for option " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Replaces the search after a Threads or Hash change, stopping the old helper threads.
+     */
+    private void rebuildSearch() {
+        if (currentSearchTask != null && !currentSearchTask.isDone()) {
+            searchEngine.stop();
+        }
+        searchEngine.shutdown();
+        searchEngine = new SmpSearch(threads, Search.DEFAULT_TIME_LIMIT, transpositionTable);
+    }
+
+    /**
+     * Handles the "bench" command. It uses its own transposition table, so the engine's
+     * table and the current position are left as they were.
+     * @param parts The array of strings representing the command parts.
+     */
+    private void handleBenchCommand(String[] parts) {
+        try {
+            Bench.run(parts.length > 1 ? Integer.parseInt(parts[1]) : Bench.DEFAULT_DEPTH,
+                    parts.length > 2 ? Integer.parseInt(parts[2]) : threads);
+        } catch (NumberFormatException e) {
+            System.err.println("Usage: bench [depth] [threads]");
+        }
+    }
+
+    /**
+     * Handles the "perft" and "divide" debug commands on the current position.
+     * @param parts The array of strings representing the command parts.
+     * @param divide Whether to print the node count of every root move as well.
+     */
+    private void handlePerftCommand(String[] parts, boolean divide) {
+        try {
+            int depth = Integer.parseInt(parts[1]);
+            int hashSizeMb = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+            Perft.Result result = new Perft(hashSizeMb).divide(currentGameState, depth);
+            if (divide) {
+                Perft.printDivide(result);
+            } else {
+                Perft.printTotals(result);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Usage: " + parts[0] + " <depth> [hashMB]");
+        } catch (OutOfMemoryError e) {
+            System.err.println("Not enough memory for the perft hash; try a smaller hashMB");
+        }
+    }
+
     /**
      * Handles the "position" UCI command.
      * This command sets the current board state. It can be either "startpos"
@@ -163,7 +284,7 @@ public class UCIEngine {
         // Check if the command specifies "startpos"
         if (parts.length > 1 && parts[1].equals("startpos")) {
             currentGameState = new GameState(); // Initialize to the standard starting position
-            movesIndex = 2; // Moves, if any, will start from the third part
+            movesIndex = 3; // Moves, if any, will start after the "moves" keyword
         }
         // Check if the command specifies a FEN string
         else if (parts.length > 1 && parts[1].equals("fen")) {
@@ -299,22 +420,25 @@ public class UCIEngine {
 
         // Set the search engine's time limit
         if (timeLimitForThisMove != -1) {
-            searchEngine = new Search((int) timeLimitForThisMove);
+            searchEngine.setTimeLimit(timeLimitForThisMove);
         } else {
-            searchEngine = new Search(); // Use the default time limit if none specified
+            searchEngine.setTimeLimit(Search.DEFAULT_TIME_LIMIT); // Use the default time limit if none specified
         }
 
-        // Set the search engine's depth
-        if (depth != -1) {
-            searchEngine.setSearchDepth(depth);
-        } else {
-            searchEngine.setSearchDepth(5); // Default search depth if no depth specified
-        }
+        // Set the search depth: as deep as the clock allows when timed, otherwise a fixed default
+        int searchDepth = depth != -1 ? depth : timeLimitForThisMove != -1 ? Search.MAX_PLY : 5;
 
-        // Cancel any previously running search task to avoid conflicts
+        // Stop any previously running search and wait for it, so clearing the flag below cannot revive it
         if (currentSearchTask != null && !currentSearchTask.isDone()) {
-            currentSearchTask.cancel(true);
+            searchEngine.stop();
+            try {
+                currentSearchTask.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Error stopping the previous search: " + e.getMessage());
+            }
         }
+        // Cleared here rather than in the search task, so a "stop" sent right after "go" is not lost
+        searchEngine.clearStop();
 
         // Submit the search task to the executor service.
         // This runs the search in a separate thread, keeping the main thread free
@@ -322,7 +446,7 @@ public class UCIEngine {
         currentSearchTask = searchExecutor.submit(() -> {
             try {
                 // Call the search engine to find the best move
-                Move bestMove = searchEngine.findBestMove(currentGameState, searchEngine.getSearchDepth());
+                Move bestMove = searchEngine.findBestMove(currentGameState, searchDepth);
                 if (bestMove != null) {
                     // If a best move is found, report it to the GUI
                     System.out.println("bestmove " + bestMove.toUCI());
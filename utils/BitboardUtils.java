@@ -22,9 +22,54 @@ public class BitboardUtils {
     public static final long CENTER = 0x0000001818000000L;
     public static final long EXTENDED_CENTER = 0x00003C3C3C3C0000L;
 
+    private static final long[][] BETWEEN = new long[64][64];
+    private static final long[][] LINE = new long[64][64];
+
+    static {
+        int[][] directions = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+        for (int from = 0; from < 64; from++) {
+            for (int[] d : directions) {
+                long ray = 0L;
+                int f = from % 8 + d[0];
+                int r = from / 8 + d[1];
+                while (f >= 0 && f <= 7 && r >= 0 && r <= 7) {
+                    int to = r * 8 + f;
+                    BETWEEN[from][to] = ray;
+                    ray |= 1L << to;
+                    f += d[0];
+                    r += d[1];
+                }
+                // Every square on this ray shares the same full line through 'from'.
+                long line = ray | (1L << from);
+                int bf = from % 8 - d[0];
+                int br = from / 8 - d[1];
+                while (bf >= 0 && bf <= 7 && br >= 0 && br <= 7) {
+                    line |= 1L << (br * 8 + bf);
+                    bf -= d[0];
+                    br -= d[1];
+                }
+                long targets = ray;
+                while (targets != 0) {
+                    LINE[from][Long.numberOfTrailingZeros(targets)] = line;
+                    targets &= targets - 1;
+                }
+            }
+        }
+    }
+
     private BitboardUtils() {
     }
 
+    /** Squares strictly between two squares on a shared rank, file or diagonal; 0 if not aligned. */
+    public static long between(int a, int b) {
+        return BETWEEN[a][b];
+    }
+
+    /** The full edge-to-edge line through two aligned squares; 0 if not aligned. */
+    public static long line(int a, int b) {
+        return LINE[a][b];
+    }
+
     public static void printBitboard(long bitboard) {
         for (int rank = 7; rank >= 0; rank--) {
             for (int file = 0; file < 8; file++) {